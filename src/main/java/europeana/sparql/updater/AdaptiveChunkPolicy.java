@@ -0,0 +1,128 @@
+package europeana.sparql.updater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+
+/**
+ * Chunk policy that adjusts the size of the next chunk based on how long Virtuoso took to load the previous chunks, so
+ * that each chunk takes roughly the same (target) time to load. This keeps the cost per transaction predictable,
+ * independent of how many triples a record contains.
+ * <p>
+ * Loading time mostly depends on the number of triples, so when the triples of loaded chunks are known the policy
+ * adjusts a target number of triples based on the loaded triples per ms, and cuts chunks when the estimated number of
+ * triples (the size of the chunk divided by the average number of bytes per triple) reaches that target. Chunks of
+ * which the triples are unknown (records that are copied without parsing them) adjust the target size based on the
+ * loaded bytes per ms instead. Chunks are never smaller than minBytes or larger than maxBytes.
+ * <p>
+ * The policy only adapts if chunkIngested() is called after each chunk. This is not the case when chunks are loaded by
+ * parallel bulk loaders, because then all chunks are generated before the first one is loaded.
+ */
+public class AdaptiveChunkPolicy implements ChunkPolicy {
+
+    private static final Logger LOG = LogManager.getLogger(AdaptiveChunkPolicy.class);
+
+    private static final double MAX_ADJUSTMENT = 2.0;
+    private static final long MIN_DURATION_MS = 100;
+    // weight of the last chunk in the average number of bytes per triple
+    private static final double BYTES_PER_TRIPLE_WEIGHT = 0.5;
+
+    private final long targetMillis;
+    private final long minBytes;
+    private final long maxBytes;
+    private volatile long targetBytes;
+    // 0 as long as no chunk with a known number of triples was loaded
+    private volatile double bytesPerTriple;
+    private volatile long targetTriples;
+
+    /**
+     * Create a new adaptive chunk policy
+     * @param initialBytes the (uncompressed) size of the first chunk
+     * @param targetDuration how long loading a chunk should take
+     * @param minBytes the minimum size of a chunk
+     * @param maxBytes the maximum size of a chunk
+     */
+    public AdaptiveChunkPolicy(long initialBytes, Duration targetDuration, long minBytes, long maxBytes) {
+        this.targetMillis = targetDuration.toMillis();
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.targetBytes = limitBytes(initialBytes);
+    }
+
+    @Override
+    public boolean isChunkFull(int records, long bytes) {
+        if (bytes < minBytes) {
+            return false;
+        }
+        if (bytes >= maxBytes) {
+            return true;
+        }
+        double perTriple = bytesPerTriple;
+        if (perTriple > 0) {
+            return bytes / perTriple >= targetTriples;
+        }
+        return bytes >= targetBytes;
+    }
+
+    @Override
+    public synchronized void chunkIngested(TtlChunk chunk, long triples, Duration duration) {
+        long millis = duration.toMillis();
+        if (millis < MIN_DURATION_MS || chunk.getBytes() <= 0) {
+            return;
+        }
+        if (triples > 0) {
+            double chunkBytesPerTriple = (double) chunk.getBytes() / triples;
+            long current = (bytesPerTriple > 0 ? targetTriples : Math.round(targetBytes / chunkBytesPerTriple));
+            double perTriple = (bytesPerTriple > 0
+                    ? BYTES_PER_TRIPLE_WEIGHT * chunkBytesPerTriple + (1 - BYTES_PER_TRIPLE_WEIGHT) * bytesPerTriple
+                    : chunkBytesPerTriple);
+            long wanted = Math.round((double) triples / millis * targetMillis);
+            // keep the estimated size within the limits, so the estimate stays meaningful
+            targetBytes = limitBytes(Math.round(limitAdjustment(current, wanted) * perTriple));
+            targetTriples = Math.max(1, Math.round(targetBytes / perTriple));
+            // set last, isChunkFull() only uses the target triples once this is set
+            bytesPerTriple = perTriple;
+        } else {
+            long wanted = Math.round((double) chunk.getBytes() / millis * targetMillis);
+            targetBytes = limitBytes(limitAdjustment(targetBytes, wanted));
+            if (bytesPerTriple > 0) {
+                targetTriples = Math.max(1, Math.round(targetBytes / bytesPerTriple));
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Chunk {} loaded in {} ms ({} triples/s), next chunk size is {} bytes{}", chunk, millis,
+                    (triples < 0 ? "?" : Math.round(triples * 1000D / millis)), targetBytes,
+                    (bytesPerTriple > 0 ? " (about " + targetTriples + " triples)" : ""));
+        }
+    }
+
+    /**
+     * Limit the change per chunk, so a single slow or fast chunk doesn't change the size too much
+     */
+    private static long limitAdjustment(long current, long wanted) {
+        return Math.max(Math.round(current / MAX_ADJUSTMENT), Math.min(Math.round(current * MAX_ADJUSTMENT), wanted));
+    }
+
+    private long limitBytes(long bytes) {
+        return Math.max(minBytes, Math.min(maxBytes, bytes));
+    }
+
+    public long getTargetBytes() {
+        return targetBytes;
+    }
+
+    /**
+     * @return the number of triples after which a chunk is cut, -1 if no chunk with a known number of triples was
+     * loaded yet
+     */
+    public long getTargetTriples() {
+        return (bytesPerTriple > 0 ? targetTriples : -1);
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive chunk size, target load time " + targetMillis + " ms, currently " + targetBytes + " bytes"
+                + (bytesPerTriple > 0 ? " (about " + targetTriples + " triples)" : "");
+    }
+}
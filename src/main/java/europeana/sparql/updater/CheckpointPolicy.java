@@ -0,0 +1,75 @@
+package europeana.sparql.updater;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Decides when the updater creates a Virtuoso checkpoint. A checkpoint stalls queries while dirty buffers are written
+ * to disk, so instead of creating one after every graph operation, a checkpoint is created after a number of changed
+ * datasets, after some time, or when the number of dirty buffers gets too high (whichever comes first). If there are
+ * changes that were not checkpointed, a final checkpoint is created at the end of the run.
+ */
+public class CheckpointPolicy {
+
+    private final int maxDatasets;
+    private final Duration maxInterval;
+    private final long maxDirtyBuffers;
+
+    private int changedDatasets;
+    private Instant lastCheckpoint = Instant.now();
+
+    /**
+     * Initialize a new checkpoint policy. If all values are 0 only one checkpoint is created at the end of the run.
+     * @param maxDatasets create a checkpoint after this many datasets were changed, 0 to disable
+     * @param maxInterval create a checkpoint when the last checkpoint is older than this, null or 0 to disable
+     * @param maxDirtyBuffers create a checkpoint when Virtuoso has at least this many dirty buffers, 0 to disable
+     */
+    public CheckpointPolicy(int maxDatasets, Duration maxInterval, long maxDirtyBuffers) {
+        this.maxDatasets = maxDatasets;
+        this.maxInterval = (maxInterval == null ? Duration.ZERO : maxInterval);
+        this.maxDirtyBuffers = maxDirtyBuffers;
+    }
+
+    /**
+     * Report that a dataset was changed (created, updated, fixed, removed or failed halfway)
+     */
+    public void datasetChanged() {
+        changedDatasets++;
+    }
+
+    /**
+     * @return true if there are changes that were not checkpointed yet
+     */
+    public boolean hasChanges() {
+        return changedDatasets > 0;
+    }
+
+    /**
+     * @return true if the number of dirty buffers should be checked to decide if a checkpoint is needed
+     */
+    public boolean isDirtyBuffersCheckEnabled() {
+        return maxDirtyBuffers > 0;
+    }
+
+    /**
+     * Check if a checkpoint should be created now
+     * @param dirtyBuffers the current number of dirty buffers, -1 if unknown or not checked
+     * @return true if a checkpoint is needed
+     */
+    public boolean isCheckpointNeeded(long dirtyBuffers) {
+        if (!hasChanges()) {
+            return false;
+        }
+        return (maxDatasets > 0 && changedDatasets >= maxDatasets)
+                || (!maxInterval.isZero() && Duration.between(lastCheckpoint, Instant.now()).compareTo(maxInterval) >= 0)
+                || (maxDirtyBuffers > 0 && dirtyBuffers >= maxDirtyBuffers);
+    }
+
+    /**
+     * Report that a checkpoint was created
+     */
+    public void checkpointCreated() {
+        changedDatasets = 0;
+        lastCheckpoint = Instant.now();
+    }
+}
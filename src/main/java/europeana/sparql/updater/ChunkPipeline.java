@@ -0,0 +1,183 @@
+package europeana.sparql.updater;
+
+import europeana.sparql.updater.virtuoso.CommandResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the TTL files (chunks) of a dataset in a separate thread, so the next chunks are generated while the
+ * current chunk is loaded into Virtuoso. Chunks are loaded in the same order as they are generated and loading stops
+ * at the first chunk that fails.
+ */
+public class ChunkPipeline {
+
+    private static final Logger LOG = LogManager.getLogger(ChunkPipeline.class);
+
+    private static final int OFFER_TIMEOUT = 1; // seconds
+
+    /**
+     * Loads a generated TTL file
+     */
+    @FunctionalInterface
+    public interface ChunkIngester {
+        /**
+         * Load a TTL file
+         * @param chunk the TTL file to load
+         * @return result of loading the file
+         * @throws IOException when there's a problem loading the file
+         */
+        CommandResult ingest(TtlChunk chunk) throws IOException;
+    }
+
+    private record Chunk(TtlChunk ttlChunk, IOException error) {
+        static final Chunk END = new Chunk(null, null);
+    }
+
+    private final TtlFileCreator ttlCreator;
+    private final File outputFolder;
+    private final String datasetId;
+    private final BlockingQueue<Chunk> chunks;
+    private volatile boolean stopped;
+
+    /**
+     * Initialize a new chunk pipeline
+     * @param ttlCreator the creator that generates the TTL files
+     * @param outputFolder the folder where TTL files are stored
+     * @param datasetId the id of the dataset, used to name TTL files
+     * @param lookAhead the maximum number of chunks that are generated ahead of the chunk that is loaded
+     */
+    public ChunkPipeline(TtlFileCreator ttlCreator, File outputFolder, String datasetId, int lookAhead) {
+        this.ttlCreator = ttlCreator;
+        this.outputFolder = outputFolder;
+        this.datasetId = datasetId;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(1, lookAhead));
+    }
+
+    /**
+     * Generate and load all chunks
+     * @param ingester used to load each chunk
+     * @return the result of loading the last chunk (or the first chunk that failed), null if there were no chunks
+     * @throws IOException when there's a problem generating or loading a chunk
+     */
+    public CommandResult run(ChunkIngester ingester) throws IOException {
+        Thread producer = new Thread(this::produceChunks, "chunk-producer-" + datasetId);
+        producer.start();
+        CommandResult res = null;
+        try {
+            Chunk chunk = takeChunk();
+            while (chunk != Chunk.END) {
+                if (chunk.error() != null) {
+                    throw chunk.error();
+                }
+                try {
+                    res = ingester.ingest(chunk.ttlChunk());
+                } finally {
+                    deleteFile(chunk.ttlChunk().getFile());
+                }
+                if (!res.isSuccess()) {
+                    break;
+                }
+                chunk = takeChunk();
+            }
+        } finally {
+            stop(producer);
+        }
+        return res;
+    }
+
+    private Chunk takeChunk() throws InterruptedIOException {
+        try {
+            return chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for next chunk");
+        }
+    }
+
+    /**
+     * Generate all chunks and add them to the queue. The queue always ends with END or an error chunk (unless the
+     * pipeline was stopped), otherwise the consumer would wait forever
+     */
+    private void produceChunks() {
+        int chunkNr = 0;
+        Chunk last = Chunk.END;
+        try {
+            while (!stopped && ttlCreator.hasNextTtlFile()) {
+                File ttlFile = new File(outputFolder, datasetId + "_" + chunkNr
+                        + ttlCreator.getOutputFormat().getFileExtension());
+                TtlChunk ttlChunk = ttlCreator.createNextTtlFile(ttlFile);
+                LOG.debug("Generated chunk {} of dataset {}: {}", chunkNr, datasetId, ttlChunk);
+                chunkNr++;
+                if (!put(new Chunk(ttlChunk, null))) {
+                    deleteFile(ttlFile);
+                    last = null;
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            last = new Chunk(null, e);
+        } catch (RuntimeException | Error e) {
+            // e.g. parser exceptions from record conversion
+            last = new Chunk(null, new IOException("Error generating chunk " + chunkNr + " of dataset "
+                    + datasetId, e));
+        } finally {
+            if (last != null) {
+                put(last);
+            }
+        }
+    }
+
+    /**
+     * Add a chunk to the queue, waiting until there is space
+     * @return false if the pipeline was stopped before the chunk could be added
+     */
+    private boolean put(Chunk chunk) {
+        try {
+            while (!chunks.offer(chunk, OFFER_TIMEOUT, TimeUnit.SECONDS)) {
+                if (stopped) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void stop(Thread producer) {
+        stopped = true;
+        try {
+            // the producer may be generating a chunk, so we have to wait until it's done with the TtlFileCreator
+            producer.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for chunk generation to stop");
+            producer.interrupt();
+            Thread.currentThread().interrupt();
+        }
+        Chunk remaining = chunks.poll();
+        while (remaining != null) {
+            if (remaining.ttlChunk() != null) {
+                deleteFile(remaining.ttlChunk().getFile());
+            }
+            remaining = chunks.poll();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        try {
+            LOG.trace("Deleting file {}", file);
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOG.warn("Unable to delete file {}", file, e);
+        }
+    }
+}
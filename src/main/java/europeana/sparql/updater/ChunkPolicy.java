@@ -0,0 +1,28 @@
+package europeana.sparql.updater;
+
+import java.time.Duration;
+
+/**
+ * Decides when a TTL file (chunk) is full, so the records of a dataset are loaded in Virtuoso in multiple transactions
+ */
+public interface ChunkPolicy {
+
+    /**
+     * Check if a chunk is full
+     * @param records the number of records in the chunk so far
+     * @param bytes the uncompressed size of the chunk so far
+     * @return true if no more records should be added to the chunk
+     */
+    boolean isChunkFull(int records, long bytes);
+
+    /**
+     * Report that a chunk was loaded in Virtuoso, so the policy can adjust the size of the next chunks. Note that this
+     * may be called from a different thread than isChunkFull()
+     * @param chunk the chunk that was loaded
+     * @param triples the number of triples that were loaded (-1 if unknown)
+     * @param duration how long loading the chunk took
+     */
+    default void chunkIngested(TtlChunk chunk, long triples, Duration duration) {
+        // by default chunk sizes are not adjusted
+    }
+}
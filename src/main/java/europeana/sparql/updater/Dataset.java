@@ -4,7 +4,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.lang.NonNull;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 
 /**
  * Represents the status of an Europeana dataset in the FTP server and in
@@ -22,8 +24,14 @@ public class Dataset {
 
     private static final Logger LOG = LogManager.getLogger(Dataset.class);
 
+    private static final Duration HOUR = Duration.ofHours(1);
+    private static final Duration DAY = Duration.ofDays(1);
+    // LIST output only shows the date (no time) of files older than about half a year
+    private static final Duration LIST_DATE_ONLY_AGE = Duration.ofDays(180);
+
     String id;
     Instant timestampFtp;
+    long sizeFtp = -1;
     Instant timestampSparql;
     State state;
 
@@ -52,6 +60,17 @@ public class Dataset {
         this.timestampFtp = instant;
     }
 
+    /**
+     * @return the size of the dataset zip file in bytes, -1 if unknown
+     */
+    public long getSizeFtp() {
+        return sizeFtp;
+    }
+
+    public void setSizeFtp(long sizeFtp) {
+        this.sizeFtp = sizeFtp;
+    }
+
     public Instant getTimestampSparql() {
         return timestampSparql;
     }
@@ -89,7 +108,7 @@ public class Dataset {
             setTimestampSparql(dsAtSparql.getTimestampSparql());
             if (timestampSparql == null || dsAtSparql.getState() == State.CORRUPT)
                 state = State.CORRUPT;
-            else if (timestampFtp.isAfter(timestampSparql))
+            else if (isNewerThanSparql())
                 state = State.OUTDATED;
             else
                 state = State.UP_TO_DATE;
@@ -98,6 +117,30 @@ public class Dataset {
         return (state != State.UP_TO_DATE);
     }
 
+    /**
+     * Timestamps loaded before exact (MLSD/MDTM) timestamps were used may have been truncated to the minute or, for
+     * files older than half a year, to the day (plain LIST output). To avoid reloading every dataset once after
+     * upgrading, a stored timestamp that is such a truncation of the timestamp on the FTP server is considered equal.
+     * All other timestamps are compared exactly, so after the next load of a dataset the stored timestamp is exact.
+     */
+    private boolean isNewerThanSparql() {
+        if (!timestampFtp.isAfter(timestampSparql)) {
+            return false;
+        }
+        if (timestampFtp.truncatedTo(ChronoUnit.MINUTES).equals(timestampSparql)) {
+            LOG.trace("Dataset {}: stored timestamp {} has minute precision", id, timestampSparql);
+            return false;
+        }
+        // a day in the local time of the server starts at a whole hour
+        boolean wholeHour = timestampSparql.getEpochSecond() % HOUR.toSeconds() == 0 && timestampSparql.getNano() == 0;
+        if (wholeHour && timestampFtp.isBefore(timestampSparql.plus(DAY))
+                && timestampFtp.isBefore(Instant.now().minus(LIST_DATE_ONLY_AGE))) {
+            LOG.trace("Dataset {}: stored timestamp {} has day precision", id, timestampSparql);
+            return false;
+        }
+        return true;
+    }
+
     public boolean isCorruptAtSparql() {
         return timestampSparql == null;
     }
@@ -0,0 +1,61 @@
+package europeana.sparql.updater;
+
+import java.time.Instant;
+
+/**
+ * Information about the zip file of a dataset as found in a directory listing
+ */
+public class DatasetFile {
+
+    private final String datasetId;
+    private final String name;
+    private final long size;
+    private final Instant timestamp;
+    private String checksumFileName;
+
+    /**
+     * Create a new dataset file
+     * @param datasetId the id of the dataset
+     * @param name the file name
+     * @param size the size of the file in bytes (-1 if unknown)
+     * @param timestamp the last modification date of the file
+     */
+    public DatasetFile(String datasetId, String name, long size, Instant timestamp) {
+        this.datasetId = datasetId;
+        this.name = name;
+        this.size = size;
+        this.timestamp = timestamp;
+    }
+
+    public String getDatasetId() {
+        return datasetId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the name of the file containing the checksum of this file, null if there is no such file
+     */
+    public String getChecksumFileName() {
+        return checksumFileName;
+    }
+
+    public void setChecksumFileName(String checksumFileName) {
+        this.checksumFileName = checksumFileName;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
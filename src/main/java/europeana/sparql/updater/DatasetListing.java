@@ -0,0 +1,97 @@
+package europeana.sparql.updater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of a directory listing with dataset files. We create such a snapshot once at the start of an update so
+ * we don't have to list the (very large) directory again for every dataset that we download.
+ */
+public class DatasetListing {
+
+    private static final Logger LOG = LogManager.getLogger(DatasetListing.class);
+
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final String CHECKSUM_MARKER = ".md5";
+
+    private final Instant created = Instant.now();
+    private final Map<String, DatasetFile> files = new LinkedHashMap<>();
+    private final Map<String, String> checksumFiles = new HashMap<>();
+
+    /**
+     * Add a file to the listing. Only dataset zip files and their checksum files are stored, other files are ignored
+     * @param name the file name
+     * @param size the file size in bytes (-1 if unknown)
+     * @param timestamp the last modification date of the file
+     */
+    public void addFile(String name, long size, Instant timestamp) {
+        int dotIndex = name.indexOf('.');
+        if (dotIndex <= 0) {
+            LOG.trace("Ignoring file {}", name);
+            return;
+        }
+        String datasetId = name.substring(0, dotIndex);
+        if (name.endsWith(ZIP_EXTENSION)) {
+            DatasetFile file = new DatasetFile(datasetId, name, size, timestamp);
+            file.setChecksumFileName(checksumFiles.get(datasetId));
+            files.put(datasetId, file);
+        } else if (name.startsWith(datasetId + ZIP_EXTENSION + ".") && name.contains(CHECKSUM_MARKER)) {
+            checksumFiles.put(datasetId, name);
+            DatasetFile file = files.get(datasetId);
+            if (file != null) {
+                file.setChecksumFileName(name);
+            }
+        } else {
+            LOG.trace("Ignoring file {}", name);
+        }
+    }
+
+    /**
+     * Lookup the file of a particular dataset
+     * @param datasetId the id of the dataset
+     * @return the dataset file, or null if the dataset is not in this listing
+     */
+    public DatasetFile get(String datasetId) {
+        return files.get(datasetId);
+    }
+
+    /**
+     * @return all dataset files in this listing
+     */
+    public Collection<DatasetFile> getFiles() {
+        return files.values();
+    }
+
+    /**
+     * @return a new list with all datasets in this listing
+     */
+    public List<Dataset> toDatasets() {
+        List<Dataset> result = new ArrayList<>(files.size());
+        for (DatasetFile file : files.values()) {
+            Dataset ds = new Dataset(file.getDatasetId());
+            ds.setTimestampFtp(file.getTimestamp());
+            ds.setSizeFtp(file.getSize());
+            result.add(ds);
+        }
+        return result;
+    }
+
+    /**
+     * @return the moment this listing was created
+     */
+    public Instant getCreated() {
+        return created;
+    }
+
+    public int size() {
+        return files.size();
+    }
+}
@@ -0,0 +1,54 @@
+package europeana.sparql.updater;
+
+import europeana.sparql.updater.exception.UpdaterException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+
+/**
+ * A location from which dataset zip files can be retrieved, for example the Europeana FTP server or a local folder
+ */
+public interface DatasetSource extends Closeable {
+
+    /**
+     * List the datasets that are available
+     * @return a list of available data sets
+     */
+    List<Dataset> listDatasets();
+
+    /**
+     * Lookup information about the zip file of a dataset
+     * @param datasetId the id of the dataset to lookup
+     * @return information about the dataset file, null if the dataset is not available
+     */
+    DatasetFile stat(String datasetId);
+
+    /**
+     * Open a stream to read the zip file of a dataset
+     * @param datasetId the id of the dataset to read
+     * @return stream to read the zip file; use verify() when done reading to check if all data was received correctly
+     * @throws UpdaterException when there is a problem opening the file
+     */
+    DownloadStream openStream(String datasetId) throws UpdaterException;
+
+    /**
+     * Download the zip file of a particular dataset. Implementations should allow this method to be called from
+     * multiple threads at the same time
+     * @param outputFile the location and file name to store the downloaded file
+     * @param datasetId the id of the dataset to download
+     * @throws UpdaterException when there is a problem downloading the file
+     */
+    void download(File outputFile, String datasetId) throws UpdaterException;
+
+    /**
+     * @return the maximum number of downloads that can run at the same time
+     */
+    int getMaxParallelDownloads();
+
+    /**
+     * Release any resources (e.g. connections) held by this source
+     */
+    @Override
+    void close();
+}
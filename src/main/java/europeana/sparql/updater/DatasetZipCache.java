@@ -0,0 +1,173 @@
+package europeana.sparql.updater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Local cache of downloaded dataset zip files, so files don't have to be downloaded again if a dataset failed to load
+ * or when multiple servers share the same volume. Files are identified by dataset id, size and last modification date
+ * on the FTP server. When the cache grows larger than the configured maximum size, the least recently used files are
+ * removed.
+ */
+public class DatasetZipCache {
+
+    private static final Logger LOG = LogManager.getLogger(DatasetZipCache.class);
+
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final String TMP_EXTENSION = ".tmp";
+
+    private final File cacheFolder;
+    private final long maxBytes;
+
+    /**
+     * Initialize a new cache
+     * @param cacheFolder the folder in which to store cached files
+     * @param maxBytes the maximum total size of all cached files
+     */
+    public DatasetZipCache(File cacheFolder, long maxBytes) {
+        this.cacheFolder = cacheFolder;
+        this.maxBytes = maxBytes;
+        if (!cacheFolder.exists() && !cacheFolder.mkdirs()) {
+            throw new IllegalStateException("Unable to create folder " + cacheFolder.getAbsolutePath());
+        }
+        LOG.info("Using zip file cache {} with maximum size {} bytes", cacheFolder, maxBytes);
+    }
+
+    private File getCacheFile(DatasetFile datasetFile) {
+        return new File(cacheFolder, datasetFile.getDatasetId() + "_" + datasetFile.getSize() + "_"
+                + datasetFile.getTimestamp().toEpochMilli() + ZIP_EXTENSION);
+    }
+
+    private static boolean isCacheable(DatasetFile datasetFile) {
+        return datasetFile.getSize() >= 0 && datasetFile.getTimestamp() != null;
+    }
+
+    /**
+     * Lookup a dataset zip file in the cache
+     * @param datasetFile the dataset file to lookup
+     * @return the cached file, or null if it's not in the cache
+     */
+    public synchronized File get(DatasetFile datasetFile) {
+        if (!isCacheable(datasetFile)) {
+            return null;
+        }
+        File cacheFile = getCacheFile(datasetFile);
+        if (cacheFile.exists() && cacheFile.length() == datasetFile.getSize()) {
+            // we use the last modified date of cached files to keep track of when it was last used
+            if (!cacheFile.setLastModified(System.currentTimeMillis())) {
+                LOG.debug("Unable to update last modified date of {}", cacheFile);
+            }
+            LOG.debug("Cache hit for {}", datasetFile);
+            return cacheFile;
+        }
+        LOG.debug("Cache miss for {}", datasetFile);
+        return null;
+    }
+
+    /**
+     * Copy a dataset file from the cache to the provided location. If possible a hard link is created instead of a copy
+     * @param datasetFile the dataset file to lookup
+     * @param outputFile the location where to store the file
+     * @return true if the file was found in the cache, otherwise false
+     * @throws IOException when there's a problem copying the file
+     */
+    public boolean retrieve(DatasetFile datasetFile, File outputFile) throws IOException {
+        File cacheFile = get(datasetFile);
+        if (cacheFile == null) {
+            return false;
+        }
+        Files.deleteIfExists(outputFile.toPath());
+        linkOrCopy(cacheFile.toPath(), outputFile.toPath());
+        LOG.info("Retrieved {} from cache", datasetFile);
+        return true;
+    }
+
+    /**
+     * Add a downloaded dataset file to the cache. Older versions of the same dataset are removed and if the cache is
+     * too large, the least recently used files are removed.
+     * @param datasetFile information about the dataset file
+     * @param downloadedFile the downloaded file
+     */
+    public synchronized void store(DatasetFile datasetFile, File downloadedFile) {
+        if (!isCacheable(datasetFile) || downloadedFile.length() > maxBytes) {
+            LOG.debug("Not caching {}", datasetFile);
+            return;
+        }
+        File cacheFile = getCacheFile(datasetFile);
+        Path tmpFile = new File(cacheFolder, cacheFile.getName() + TMP_EXTENSION).toPath();
+        try {
+            removeOtherVersions(datasetFile.getDatasetId(), cacheFile);
+            Files.deleteIfExists(tmpFile);
+            linkOrCopy(downloadedFile.toPath(), tmpFile);
+            // move is atomic so other processes sharing the cache never see a partial file
+            Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (!cacheFile.setLastModified(System.currentTimeMillis())) {
+                LOG.debug("Unable to update last modified date of {}", cacheFile);
+            }
+            LOG.debug("Stored {} in cache", datasetFile);
+            evict();
+        } catch (IOException io) {
+            LOG.warn("Unable to store {} in cache", datasetFile, io);
+            deleteQuietly(tmpFile);
+        }
+    }
+
+    private void removeOtherVersions(String datasetId, File keep) {
+        File[] versions = cacheFolder.listFiles((dir, name) -> name.startsWith(datasetId + "_")
+                && name.endsWith(ZIP_EXTENSION) && !name.equals(keep.getName()));
+        if (versions != null) {
+            for (File version : versions) {
+                LOG.debug("Removing outdated file {} from cache", version);
+                deleteQuietly(version.toPath());
+            }
+        }
+    }
+
+    /**
+     * Remove least recently used files until the cache size is below the maximum
+     */
+    private void evict() {
+        File[] files = cacheFolder.listFiles((dir, name) -> name.endsWith(ZIP_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && totalSize > maxBytes; i++) {
+            LOG.debug("Evicting {} from cache", files[i]);
+            totalSize -= files[i].length();
+            deleteQuietly(files[i].toPath());
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.trace("Unable to create link to {}, copying file instead", source);
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException io) {
+            LOG.warn("Unable to delete file {}", path, io);
+        }
+    }
+}
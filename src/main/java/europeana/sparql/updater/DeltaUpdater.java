@@ -0,0 +1,322 @@
+package europeana.sparql.updater;
+
+import europeana.sparql.updater.Dataset.State;
+import europeana.sparql.updater.virtuoso.CommandResult;
+import europeana.sparql.updater.virtuoso.GraphManager;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Updates the graph of an outdated dataset by only removing and adding what changed, instead of loading the whole
+ * dataset in a new graph. Changes are determined either per triple or per record:
+ * <ul>
+ *     <li>Per triple, by comparing a sorted dump of the new version of the dataset with the dump of the version that
+ *     is loaded in Virtuoso (see TripleDump). Removed triples are bulk loaded in a temporary graph and then removed
+ *     from the dataset graph with one SPARQL DELETE, after which the added triples are bulk loaded directly in the
+ *     dataset graph.</li>
+ *     <li>Per record, by comparing hashes of the records with the manifest of the loaded version (see RecordManifest).
+ *     Only added and changed records are loaded in the temporary graph. The triples that only occurred in changed and
+ *     removed records are removed from the dataset graph (the same way as per triple), after which the temporary graph
+ *     is merged into the dataset graph.</li>
+ * </ul>
+ * Old triples are removed first (including the modification timestamp of the dataset), so if adding the new triples
+ * fails the dataset is reloaded completely in the next run.
+ * <p>
+ * Graphs are changed with transaction logging disabled, so a change is lost if Virtuoso crashes before the next
+ * checkpoint. The dump or manifest of a loaded dataset is therefore kept as a pending file and only replaces the one of
+ * the previous version after a checkpoint was created.
+ */
+public class DeltaUpdater {
+
+    private static final Logger LOG = LogManager.getLogger(DeltaUpdater.class);
+
+    private static final String DUMP_EXTENSION = ".nt.gz";
+    private static final String NEW_DUMP_EXTENSION = "_new.nt.gz";
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final String RECORD_TRIPLES_EXTENSION = ".records.nt.gz";
+    private static final String NEW_RECORD_TRIPLES_EXTENSION = "_new.records.nt.gz";
+    private static final String PENDING_EXTENSION = ".pending";
+    private static final String DATASET_IRI_PREFIX = "http://data.europeana.eu/dataset/";
+    private static final String MODIFIED_IRI = "http://purl.org/dc/terms/modified";
+    private static final String SUFFIX_REMOVED = "_removed";
+    private static final String SUFFIX_ADDED = "_added";
+    // if more triples changed than this ratio of the dataset size, it's cheaper to reload the whole dataset
+    private static final double MAX_CHANGE_RATIO = 0.5;
+
+    private final File dumpFolder;
+    private final GraphManager graphManager;
+    private final Set<String> pendingDatasets = new LinkedHashSet<>();
+
+    /**
+     * Initialize a new delta updater
+     * @param dumpFolder folder where the dumps of the loaded datasets are kept
+     * @param graphManager used to update graphs in Virtuoso
+     */
+    public DeltaUpdater(File dumpFolder, GraphManager graphManager) {
+        this.dumpFolder = dumpFolder;
+        this.graphManager = graphManager;
+    }
+
+    /**
+     * Create a dump of the new version of a dataset
+     * @param ds the dataset
+     * @param dsZipFile the downloaded zip file of the dataset
+     * @return the created dump
+     * @throws IOException when there's a problem reading the zip file or writing the dump
+     */
+    public TripleDump createDump(Dataset ds, File dsZipFile) throws IOException {
+        return TripleDump.create(ds.getId(), dsZipFile, ds.getTimestampFtp(),
+                new File(dumpFolder, ds.getId() + NEW_DUMP_EXTENSION));
+    }
+
+    /**
+     * Update the graph of a dataset with the triples that changed since the previous version
+     * @param ds the dataset to update
+     * @param newDump the dump of the new version of the dataset
+     * @return CommandResult with the outcome, or null if the dataset can't (or shouldn't) be updated incrementally
+     * @throws IOException when there's a problem comparing the dumps or updating the graph
+     */
+    public CommandResult applyDelta(Dataset ds, TripleDump newDump) throws IOException {
+        String datasetId = ds.getId();
+        File previousDump = getDumpFile(datasetId);
+        if (ds.getState() != State.OUTDATED || !previousDump.exists()) {
+            LOG.debug("No previous dump of dataset {}, dataset is loaded completely", ds);
+            return null;
+        }
+        if (!newDump.isComparable()) {
+            LOG.info("Dataset {} can't be updated incrementally: {}", ds, newDump.getNotComparableReason());
+            return null;
+        }
+
+        String extension = RdfOutputFormat.NTRIPLES.getFileExtension();
+        File removedFile = new File(graphManager.getTtlImportFolder(), datasetId + SUFFIX_REMOVED + extension);
+        File addedFile = new File(graphManager.getTtlImportFolder(), datasetId + SUFFIX_ADDED + extension);
+        try {
+            TripleDump.Delta delta = newDump.compare(previousDump, removedFile, addedFile);
+            LOG.info("Dataset {}: {} triples removed, {} triples added", ds, delta.removed(), delta.added());
+            if (delta.removed() + delta.added() > newDump.getTriples() * MAX_CHANGE_RATIO) {
+                LOG.info("Too many changes in dataset {}, dataset is loaded completely", ds);
+                return null;
+            }
+
+            CommandResult res = CommandResult.success("No changes");
+            if (delta.removed() > 0) {
+                res = graphManager.ingestGraph(datasetId + SUFFIX_REMOVED, removedFile);
+                if (res.isSuccess()) {
+                    res = graphManager.removeTriples(datasetId, datasetId + SUFFIX_REMOVED);
+                }
+                if (!res.isSuccess()) {
+                    graphManager.removeObsoleteGraph(datasetId + SUFFIX_REMOVED);
+                }
+            }
+            if (res.isSuccess() && delta.added() > 0) {
+                res = graphManager.ingestGraph(datasetId, addedFile);
+            }
+            if (!res.isSuccess()) {
+                LOG.error("Error updating dataset {} incrementally: {}", ds, res.getErrorMessage());
+            }
+            return res;
+        } finally {
+            Files.deleteIfExists(removedFile.toPath());
+            Files.deleteIfExists(addedFile.toPath());
+        }
+    }
+
+    /**
+     * Create the manifest for loading a new version of a dataset. If the dataset is outdated and the manifest of the
+     * loaded version is available, unchanged records are left out.
+     * @param ds the dataset
+     * @return the manifest to use while loading the dataset
+     * @throws IOException when there's a problem reading the manifest
+     */
+    public RecordManifest createManifest(Dataset ds) throws IOException {
+        String datasetId = ds.getId();
+        File manifestFile = getManifestFile(datasetId);
+        File recordTriplesFile = getRecordTriplesFile(datasetId);
+        File newRecordTriplesFile = new File(dumpFolder, datasetId + NEW_RECORD_TRIPLES_EXTENSION);
+        RecordManifest manifest;
+        if (ds.getState() == State.OUTDATED && manifestFile.exists() && recordTriplesFile.exists()) {
+            LOG.info("Only loading added and changed records of dataset {}", ds);
+            manifest = RecordManifest.read(manifestFile, recordTriplesFile, newRecordTriplesFile);
+        } else {
+            if (ds.getState() == State.OUTDATED) {
+                LOG.debug("No previous manifest of dataset {}, dataset is loaded completely", ds);
+            }
+            manifest = new RecordManifest(newRecordTriplesFile);
+        }
+        // the modification timestamp is replaced with every version
+        manifest.addDatasetTriple(NodeFactory.createURI(DATASET_IRI_PREFIX + datasetId),
+                NodeFactory.createURI(MODIFIED_IRI),
+                NodeFactory.createLiteral(ds.getTimestampFtp().toString(), XSDDatatype.XSDdateTime));
+        return manifest;
+    }
+
+    /**
+     * Remove the triples of changed and removed records from the graph of a dataset, after the added and changed
+     * records were loaded in the temporary graph, and merge the temporary graph into the dataset graph
+     * @param ds the dataset to update
+     * @param manifest the manifest used while loading the records
+     * @return CommandResult with the outcome
+     * @throws IOException when there's a problem updating the graph
+     */
+    public CommandResult applyRecordDelta(Dataset ds, RecordManifest manifest) throws IOException {
+        String datasetId = ds.getId();
+        File removedFile = new File(graphManager.getTtlImportFolder(), datasetId + SUFFIX_REMOVED
+                + RdfOutputFormat.NTRIPLES.getFileExtension());
+        try {
+            long removed = manifest.writeRemovedTriples(removedFile);
+            LOG.info("Dataset {}: {} of {} records changed, {} records removed, removing {} triples", ds,
+                    manifest.getChangedRecords(), manifest.getRecords(), manifest.getRemovedRecords(), removed);
+            CommandResult res = CommandResult.success("No triples removed");
+            if (removed > 0) {
+                res = graphManager.ingestGraph(datasetId + SUFFIX_REMOVED, removedFile);
+                if (res.isSuccess()) {
+                    res = graphManager.removeTriples(datasetId, datasetId + SUFFIX_REMOVED);
+                }
+                if (!res.isSuccess()) {
+                    graphManager.removeObsoleteGraph(datasetId + SUFFIX_REMOVED);
+                }
+            }
+            if (res.isSuccess()) {
+                res = graphManager.mergeTmpGraph(datasetId);
+            }
+            if (!res.isSuccess()) {
+                LOG.error("Error updating records of dataset {}: {}", ds, res.getErrorMessage());
+            }
+            return res;
+        } finally {
+            Files.deleteIfExists(removedFile.toPath());
+        }
+    }
+
+    /**
+     * Keep the manifest of a dataset that was loaded successfully, so it can be compared with the next version. The
+     * manifest is pending until checkpointCreated() is called. If the manifest is not comparable, the manifest of the
+     * previous version is removed.
+     * @param ds the dataset that was loaded
+     * @param manifest the manifest of the loaded version
+     * @throws IOException when there's a problem writing or removing the manifest
+     */
+    public void datasetLoaded(Dataset ds, RecordManifest manifest) throws IOException {
+        if (manifest.isComparable()) {
+            manifest.write(getPendingFile(getManifestFile(ds.getId())),
+                    getPendingFile(getRecordTriplesFile(ds.getId())));
+            pendingDatasets.add(ds.getId());
+        } else {
+            LOG.info("Next version of dataset {} will be loaded completely: {}", ds,
+                    manifest.getNotComparableReason());
+            removeDeltaFiles(ds.getId());
+        }
+    }
+
+    /**
+     * Keep the dump of a dataset that was loaded successfully, so it can be compared with the next version. The dump is
+     * pending until checkpointCreated() is called. If the dump is not comparable, the dump of the previous version is
+     * removed.
+     * @param ds the dataset that was loaded
+     * @param dump the dump of the loaded version
+     * @throws IOException when there's a problem moving or removing the dump
+     */
+    public void datasetLoaded(Dataset ds, TripleDump dump) throws IOException {
+        if (dump.isComparable()) {
+            Files.move(dump.getFile().toPath(), getPendingFile(getDumpFile(ds.getId())).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            pendingDatasets.add(ds.getId());
+        } else {
+            removeDeltaFiles(ds.getId());
+        }
+    }
+
+    /**
+     * Replace the dumps and manifests of the previous versions with the pending ones, after a checkpoint made the
+     * changes to the graphs durable
+     * @throws IOException when there's a problem moving the files
+     */
+    public void checkpointCreated() throws IOException {
+        for (String datasetId : pendingDatasets) {
+            for (File file : List.of(getDumpFile(datasetId), getManifestFile(datasetId),
+                    getRecordTriplesFile(datasetId))) {
+                File pendingFile = getPendingFile(file);
+                if (pendingFile.exists()) {
+                    Files.move(pendingFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        LOG.debug("Dumps and manifests of {} datasets are up to date", pendingDatasets.size());
+        pendingDatasets.clear();
+    }
+
+    /**
+     * Remove all files of datasets with pending dumps or manifests, because it's unknown which version of those
+     * datasets will be in Virtuoso after a crash. These datasets are loaded completely when they change again.
+     * @throws IOException when there's a problem removing the files
+     */
+    public void checkpointFailed() throws IOException {
+        LOG.warn("Checkpoint failed, removing dumps and manifests of {} datasets", pendingDatasets.size());
+        for (String datasetId : new ArrayList<>(pendingDatasets)) {
+            removeDeltaFiles(datasetId);
+        }
+    }
+
+    /**
+     * Remove pending files left behind by a previous run that stopped before creating a checkpoint, together with the
+     * other files of those datasets
+     * @throws IOException when there's a problem removing the files
+     */
+    public void removeLeftoverPendingFiles() throws IOException {
+        File[] pendingFiles = dumpFolder.listFiles((dir, name) -> name.endsWith(PENDING_EXTENSION));
+        if (pendingFiles == null) {
+            return;
+        }
+        for (File pendingFile : pendingFiles) {
+            String name = pendingFile.getName();
+            String datasetId = name.substring(0, name.indexOf('.'));
+            LOG.warn("Found pending file {} of a previous run, removing all files of dataset {}", name, datasetId);
+            removeDeltaFiles(datasetId);
+        }
+    }
+
+    /**
+     * Remove the dump and manifest of a dataset, e.g. because they no longer reflect what's loaded in Virtuoso
+     * @param datasetId the id of the dataset
+     * @throws IOException when there's a problem removing the files
+     */
+    public void removeDeltaFiles(String datasetId) throws IOException {
+        Files.deleteIfExists(getDumpFile(datasetId).toPath());
+        Files.deleteIfExists(getPendingFile(getDumpFile(datasetId)).toPath());
+        Files.deleteIfExists(new File(dumpFolder, datasetId + NEW_DUMP_EXTENSION).toPath());
+        Files.deleteIfExists(getManifestFile(datasetId).toPath());
+        Files.deleteIfExists(getPendingFile(getManifestFile(datasetId)).toPath());
+        Files.deleteIfExists(getRecordTriplesFile(datasetId).toPath());
+        Files.deleteIfExists(getPendingFile(getRecordTriplesFile(datasetId)).toPath());
+        Files.deleteIfExists(new File(dumpFolder, datasetId + NEW_RECORD_TRIPLES_EXTENSION).toPath());
+        pendingDatasets.remove(datasetId);
+    }
+
+    private static File getPendingFile(File file) {
+        return new File(file.getParentFile(), file.getName() + PENDING_EXTENSION);
+    }
+
+    private File getDumpFile(String datasetId) {
+        return new File(dumpFolder, datasetId + DUMP_EXTENSION);
+    }
+
+    private File getManifestFile(String datasetId) {
+        return new File(dumpFolder, datasetId + MANIFEST_EXTENSION);
+    }
+
+    private File getRecordTriplesFile(String datasetId) {
+        return new File(dumpFolder, datasetId + RECORD_TRIPLES_EXTENSION);
+    }
+}
@@ -0,0 +1,132 @@
+package europeana.sparql.updater;
+
+import europeana.sparql.updater.exception.DownloadException;
+import europeana.sparql.updater.util.ChecksumUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Input stream for reading a dataset zip file directly from its source (without storing it on disk first). While
+ * reading, the number of bytes and optionally a checksum are calculated so the data can be verified afterwards using
+ * verify()
+ */
+public class DownloadStream extends FilterInputStream {
+
+    private static final Logger LOG = LogManager.getLogger(DownloadStream.class);
+
+    private static final int SKIP_BUFFER_SIZE = 8 * 1024;
+
+    private final DatasetFile datasetFile;
+    private final String expectedChecksum;
+    private final MessageDigest digest;
+    private final Runnable onClose;
+    private long bytesRead;
+    private boolean closed;
+
+    /**
+     * Create a new download stream
+     * @param in the stream to read from
+     * @param datasetFile information about the file that is being read
+     * @param expectedChecksum if not null then a checksum is calculated and compared with this value
+     * @param onClose optional, action to run after the stream is closed (e.g. to release a connection)
+     */
+    public DownloadStream(InputStream in, DatasetFile datasetFile, String expectedChecksum, Runnable onClose) {
+        super(in);
+        this.datasetFile = datasetFile;
+        this.expectedChecksum = expectedChecksum;
+        this.digest = (expectedChecksum == null ? null : ChecksumUtils.newDigest());
+        this.onClose = onClose;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            bytesRead++;
+            if (digest != null) {
+                digest.update((byte) b);
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            bytesRead += read;
+            if (digest != null) {
+                digest.update(b, off, read);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // we read skipped data so it's included in the checksum
+        byte[] buffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, Math.max(n, 1))];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Read any remaining data and check if the size and checksum of everything that was read match what we expect.
+     * @throws DownloadException when the data is not complete or the checksum does not match
+     */
+    public void verify() throws DownloadException {
+        try {
+            skip(Long.MAX_VALUE);
+        } catch (IOException io) {
+            throw new DownloadException("Error reading " + datasetFile, io);
+        }
+        if (datasetFile.getSize() >= 0 && bytesRead != datasetFile.getSize()) {
+            throw new DownloadException("Read " + bytesRead + " bytes of " + datasetFile + ", expected "
+                    + datasetFile.getSize());
+        }
+        if (digest != null) {
+            String checksum = ChecksumUtils.toHex(digest);
+            if (!expectedChecksum.equals(checksum)) {
+                throw new DownloadException("Checksum of " + datasetFile + " is " + checksum + ", but expected "
+                        + expectedChecksum);
+            }
+        }
+        LOG.debug("Verified {} bytes of {}", bytesRead, datasetFile);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            if (onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+}
@@ -2,213 +2,479 @@ package europeana.sparql.updater;
 
 import europeana.sparql.updater.exception.DownloadException;
 import europeana.sparql.updater.exception.UpdaterException;
+import europeana.sparql.updater.util.ChecksumUtils;
 import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPCmd;
 import org.apache.commons.net.ftp.FTPFile;
-import org.apache.commons.net.ftp.FTPReply;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Calendar;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
- * An FTP client for accessing the datasets files on the Europeana FTP server
+ * An FTP client for accessing the datasets files on the Europeana FTP server.
+ * This class keeps a pool of FTP connections so multiple datasets can be downloaded at the same time from different
+ * threads.
  */
-public class EuropeanaDatasetFtpServer {
+public class EuropeanaDatasetFtpServer implements DatasetSource {
 
     private static final Logger LOG = LogManager.getLogger(EuropeanaDatasetFtpServer.class);
 
     private static final int RETRIES = 3;
+    private static final int CHECKSUM_RETRIES = 1;
 
-    private final String hostName;
-    private final int port;
     private final String path;
-    private final String username;
-    private final String password;
-    protected FTPClient ftpClient;
     private final boolean downloadChecksum;
+    private final int poolSize;
+    private final BlockingQueue<FtpConnection> connectionPool;
+    private final List<FtpConnection> allConnections;
+    private volatile DatasetListing listing;
+    private DatasetZipCache cache;
 
     /**
-     * Initialize a new FTP server
+     * Initialize a new FTP server with 1 connection
      * @param hostName the host name of the ftp server
      * @param port the port of the ftp server
      * @param path the path on the server where datasets are available
      * @param username the username to login
      * @param password the password to login
-     * @param downloadChecksum if true then the checksum file is downloaded as well
+     * @param downloadChecksum if true then the checksum file is downloaded as well and used to verify the zip file
      */
     public EuropeanaDatasetFtpServer(String hostName, int port, String path, String username, String password,
                                      Boolean downloadChecksum) {
+        this(hostName, port, path, username, password, downloadChecksum, 1);
+    }
+
+    /**
+     * Initialize a new FTP server
+     * @param hostName the host name of the ftp server
+     * @param port the port of the ftp server
+     * @param path the path on the server where datasets are available
+     * @param username the username to login
+     * @param password the password to login
+     * @param downloadChecksum if true then the checksum file is downloaded as well and used to verify the zip file
+     * @param poolSize the maximum number of simultaneous connections to the FTP server
+     */
+    public EuropeanaDatasetFtpServer(String hostName, int port, String path, String username, String password,
+                                     Boolean downloadChecksum, int poolSize) {
         super();
-        this.hostName = hostName;
-        this.port = port;
         this.path = path;
-        this.username = username;
-        this.password = password;
         this.downloadChecksum = downloadChecksum;
-
-        initConnection();
-    }
-
-    private void initConnection() {
-        if (ftpClient == null) {
-            LOG.info("Initialising connection to FTP server...");
-            ftpClient = new FTPClient();
-        } else {
-            LOG.info("Re-establishing connection to FTP server...");
+        this.poolSize = Math.max(1, poolSize);
+        this.connectionPool = new ArrayBlockingQueue<>(this.poolSize);
+        this.allConnections = new ArrayList<>(this.poolSize);
+        for (int i = 1; i <= this.poolSize; i++) {
+            FtpConnection connection = new FtpConnection(i, hostName, port, path, username, password);
+            allConnections.add(connection);
+            connectionPool.add(connection);
         }
 
-        // 1. setup connection
-        boolean connected = false;
-        try {
-            ftpClient.connect(hostName, port);
-            logServerReply(ftpClient);
-            int replyCode = ftpClient.getReplyCode();
-            if (!FTPReply.isPositiveCompletion(replyCode)) {
-                LOG.error("Error connecting to ftp server {}:{}, error code: {}", hostName, port, replyCode);
-                return;
-            }
-            connected = ftpClient.login(username, password);
-            logServerReply(ftpClient);
-            if (!connected) {
-                LOG.error("Could not login to FTP server");
-            } else {
-                LOG.info("Logged in to FTP server");
-            }
-        } catch (IOException ex) {
-            LOG.error(ex.getMessage(), ex);
-        }
-
-        if (connected) {
-            // 2. set properties
-            try {
-                ftpClient.enterLocalPassiveMode();
-                ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-            } catch (IOException io) {
-                LOG.error("Error setting file type to binary", io);
-            }
+        // we only open the first connection directly, the others are opened when needed
+        FtpConnection first = borrowConnection();
+        releaseConnection(first);
+    }
 
-            // 3. go to folder with TTL files
-            try {
-                LOG.debug("Changing work directory to path {}...", path);
-                ftpClient.changeWorkingDirectory(path);
-                logServerReply(ftpClient);
-            } catch (IOException io) {
-                LOG.error("Error changing working directory to path {}", path, io);
-            }
-        }
+    /**
+     * Set a local cache for downloaded zip files. When a dataset file is found in the cache it is not downloaded again
+     * @param cache the cache to use, null to disable caching
+     */
+    public void setCache(DatasetZipCache cache) {
+        this.cache = cache;
     }
 
-    protected static void logServerReply(FTPClient ftpClient) {
-        int replyCode = ftpClient.getReplyCode();
-        if (!FTPReply.isPositiveCompletion(replyCode)) {
-            LOG.error("Ftp server returned error code {}!", replyCode);
-        }
-        if (LOG.isDebugEnabled()) {
-            String[] replies = ftpClient.getReplyStrings();
-            if (replies != null && replies.length > 0) {
-                for (String aReply : replies) {
-                    LOG.debug("FTP server response = {}", aReply);
-                }
-            }
-        }
+    /**
+     * @return the maximum number of simultaneous connections (and thus downloads) to the FTP server
+     */
+    @Override
+    public int getMaxParallelDownloads() {
+        return poolSize;
     }
 
     /**
-     * When processing a dataset takes long the server may close the connection to the ftp client.
+     * Take a connection from the pool, waiting if none is available. The returned connection is (re)connected if
+     * needed.
+     * @return an FTP connection that should be returned to the pool using releaseConnection()
      */
-    @SuppressWarnings("java:S1166") // no need to always log exceptions when checking status
-    private void reconnectIfNeeded() {
-        boolean connectionOk = false;
+    private FtpConnection borrowConnection() {
+        FtpConnection connection;
         try {
-            connectionOk = ftpClient.sendNoOp();
-            LOG.debug("FTP connection ok = {}", connectionOk);
-        } catch (IOException e) {
-            LOG.info("FTP connection was closed!");
-        }
-        if (!connectionOk) {
-            try {
-                ftpClient.disconnect();
-            } catch (IOException e) {
-                LOG.warn("Error trying to disconnect FTP client", e);
-            }
-            initConnection();
+            connection = connectionPool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an FTP connection", e);
         }
+        connection.reconnectIfNeeded();
+        LOG.trace("Borrowed {}", connection);
+        return connection;
+    }
+
+    private void releaseConnection(FtpConnection connection) {
+        LOG.trace("Released {}", connection);
+        connectionPool.add(connection);
     }
 
     /**
-     * List the datasets available on the ftp server
+     * List the datasets available on the ftp server. This also stores a snapshot of the directory listing that is used
+     * when downloading datasets.
      * @return a list of available data sets
      */
+    @Override
     public List<Dataset> listDatasets() {
         LOG.info("Listing FTP server data sets...");
-        List<Dataset> datasetList = new ArrayList<>();
+        DatasetListing newListing = fetchListing();
+        this.listing = newListing;
+        List<Dataset> datasetList = newListing.toDatasets();
+        if (LOG.isTraceEnabled()) {
+            for (Dataset ds : datasetList) {
+                LOG.trace("  Found FTP server dataset {} with date {}", ds, ds.timestampFtp);
+            }
+        }
+        return datasetList;
+    }
+
+    /**
+     * Retrieve a new listing of all files in the dataset folder on the FTP server
+     * @return new DatasetListing (empty if there was a problem listing files)
+     */
+    private DatasetListing fetchListing() {
+        DatasetListing result = new DatasetListing();
+        FtpConnection connection = borrowConnection();
         try {
+            FTPClient ftpClient = connection.getClient();
             ftpClient.changeWorkingDirectory(path);
-            logServerReply(ftpClient);
+            FtpConnection.logServerReply(ftpClient);
 
             ftpClient.enterLocalPassiveMode();
             ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
 
-            FTPFile[] listFiles = ftpClient.listFiles();
-            logServerReply(ftpClient);
+            // prefer machine-readable listings because they contain exact sizes and timestamps
+            boolean machineReadable = ftpClient.hasFeature(FTPCmd.MLSD);
+            FTPFile[] listFiles = (machineReadable ? ftpClient.mlistDir() : ftpClient.listFiles());
+            FtpConnection.logServerReply(ftpClient);
 
             for (FTPFile f : listFiles) {
-                if (f.getName().endsWith(".zip")) {
-                    Dataset ds = new Dataset(f.getName().substring(0, f.getName().indexOf('.')));
-                    ds.setTimestampFtp(f.getTimestamp().toInstant());
-                    datasetList.add(ds);
-                    LOG.trace("  Found FTP server dataset {} with date {}", ds, ds.timestampFtp);
+                if (f.isFile()) {
+                    // MLSD replies may lack the modify fact, in that case the timestamp is requested separately
+                    if (f.getTimestamp() != null && (machineReadable || !f.getName().endsWith(".zip"))) {
+                        result.addFile(f.getName(), f.getSize(), f.getTimestamp().toInstant());
+                    } else {
+                        result.addFile(f.getName(), getExactSize(ftpClient, f), getExactTimestamp(ftpClient, f));
+                    }
                 }
             }
+            LOG.debug("Listed {} dataset files (machine-readable = {})", result.size(), machineReadable);
         } catch (IOException ex) {
             LOG.error("Error listing data sets", ex);
             // we'll try to continue with what we have
+        } finally {
+            releaseConnection(connection);
         }
-        return datasetList;
+        return result;
     }
 
     /**
-     * Download the zip file of a particular dataset
+     * Plain LIST output often only has the day (not the time) for older files and MLSD replies may lack a timestamp.
+     * In that case we request the exact timestamp using the MDTM command. If there's no timestamp at all, the epoch is
+     * used so that an existing dataset is left as is (and a new dataset is still loaded)
+     */
+    private Instant getExactTimestamp(FTPClient ftpClient, FTPFile f) throws IOException {
+        Calendar timestamp = f.getTimestamp();
+        if (timestamp != null && timestamp.isSet(Calendar.MINUTE)) {
+            return timestamp.toInstant();
+        }
+        Instant exact = ftpClient.mdtmInstant(f.getName());
+        if (exact != null) {
+            return exact;
+        }
+        if (timestamp != null) {
+            LOG.debug("No MDTM timestamp available for {}", f.getName());
+            return timestamp.toInstant();
+        }
+        LOG.warn("No timestamp available for {}", f.getName());
+        return Instant.EPOCH;
+    }
+
+    /**
+     * If the size of a file is not in the LIST output, we request it using the SIZE command
+     */
+    private long getExactSize(FTPClient ftpClient, FTPFile f) throws IOException {
+        if (f.getSize() >= 0) {
+            return f.getSize();
+        }
+        String size = ftpClient.getSize(f.getName());
+        if (size == null || !StringUtils.isNumeric(size.trim())) {
+            LOG.debug("No size available for {}", f.getName());
+            return -1;
+        }
+        return Long.parseLong(size.trim());
+    }
+
+    /**
+     * Lookup information about the file of a dataset in the directory listing snapshot. If the dataset is not in the
+     * snapshot (or there is no snapshot yet), the directory is listed again.
+     * @param datasetId the id of the dataset to lookup
+     * @return information about the dataset file, null if it's not present on the server
+     */
+    @Override
+    public DatasetFile stat(String datasetId) {
+        DatasetListing current = this.listing;
+        DatasetFile result = (current == null ? null : current.get(datasetId));
+        if (result == null) {
+            synchronized (this) {
+                // check if another thread already refreshed the listing in the mean time
+                if (current == this.listing) {
+                    LOG.info("Dataset {} not found in directory listing, refreshing listing...", datasetId);
+                    this.listing = fetchListing();
+                }
+                result = this.listing.get(datasetId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Download the zip file of a particular dataset. This method can be called from multiple threads at the same time;
+     * each call uses its own connection from the pool.
      * @param outputFile the location and file name to store the downloaded file
      * @param datasetId the id of the dataset to download
      * @throws UpdaterException when there is a problem downloading the file
      */
+    @Override
     public void download(File outputFile, String datasetId) throws UpdaterException {
-        reconnectIfNeeded();
+        DatasetFile datasetFile = stat(datasetId);
+        if (datasetFile == null) {
+            throw new DownloadException("No zip file found for dataset " + datasetId);
+        }
+        if (retrieveFromCache(datasetFile, outputFile)) {
+            return;
+        }
+        FtpConnection connection = borrowConnection();
         try {
-            FTPFile[] listFiles = ftpClient.listFiles();
-            logServerReply(ftpClient);
-            for (FTPFile f : listFiles) {
-                if ((downloadChecksum || f.getName().endsWith(".zip")) && (f.getName().startsWith(datasetId + "."))) {
-                    downloadFile(outputFile, f);
+            String expectedChecksum = null;
+            if (downloadChecksum) {
+                expectedChecksum = retrieveChecksum(connection, datasetFile);
+            }
+            int attempt = 0;
+            while (true) {
+                attempt++;
+                String checksum = downloadFile(connection, outputFile, datasetFile, expectedChecksum != null);
+                if (expectedChecksum == null || expectedChecksum.equals(checksum)) {
                     break;
                 }
+                LOG.warn("Checksum of file {} is {}, but expected {}", outputFile, checksum, expectedChecksum);
+                if (attempt > CHECKSUM_RETRIES) {
+                    deleteIfExists(outputFile);
+                    throw new DownloadException("Checksum of downloaded file " + datasetFile + " does not match");
+                }
+            }
+            LOG.debug("Set {} downloaded as file {} using {}", datasetId, outputFile, connection);
+        } finally {
+            releaseConnection(connection);
+        }
+        if (cache != null) {
+            cache.store(datasetFile, outputFile);
+        }
+    }
+
+    private boolean retrieveFromCache(DatasetFile datasetFile, File outputFile) throws DownloadException {
+        if (cache == null) {
+            return false;
+        }
+        try {
+            return cache.retrieve(datasetFile, outputFile);
+        } catch (IOException io) {
+            throw new DownloadException("Error retrieving " + datasetFile + " from cache", io);
+        }
+    }
+
+    /**
+     * Open a stream to read the zip file of a particular dataset directly from the FTP server, without storing it on
+     * disk. The stream uses its own connection from the pool, which is released when the stream is closed.
+     * Note that the FTP server may close the connection when the stream is not read for a long time.
+     * @param datasetId the id of the dataset to read
+     * @return stream to read the zip file; use verify() when done reading to check if all data was received correctly
+     * @throws UpdaterException when there is a problem starting the download
+     */
+    @Override
+    public DownloadStream openStream(String datasetId) throws UpdaterException {
+        DatasetFile datasetFile = stat(datasetId);
+        if (datasetFile == null) {
+            throw new DownloadException("No zip file found for dataset " + datasetId);
+        }
+        File cachedFile = (cache == null ? null : cache.get(datasetFile));
+        if (cachedFile != null) {
+            try {
+                LOG.debug("Streaming set {} from cache", datasetId);
+                return new DownloadStream(Files.newInputStream(cachedFile.toPath()), datasetFile, null, null);
+            } catch (IOException io) {
+                throw new DownloadException("Error reading " + cachedFile, io);
+            }
+        }
+        FtpConnection connection = borrowConnection();
+        try {
+            String expectedChecksum = null;
+            if (downloadChecksum) {
+                expectedChecksum = retrieveChecksum(connection, datasetFile);
+            }
+            FTPClient ftpClient = connection.getClient();
+            InputStream in = ftpClient.retrieveFileStream(path + "/" + datasetFile.getName());
+            if (in == null) {
+                FtpConnection.logServerReply(ftpClient);
+                throw new DownloadException("Unable to open stream for " + path + "/" + datasetFile.getName());
+            }
+            LOG.debug("Streaming set {} using {}", datasetId, connection);
+            return new DownloadStream(in, datasetFile, expectedChecksum, () -> completeStream(connection));
+        } catch (IOException io) {
+            releaseConnection(connection);
+            throw new DownloadException("Unable to open stream for " + path + "/" + datasetFile.getName(), io);
+        } catch (DownloadException e) {
+            releaseConnection(connection);
+            throw e;
+        }
+    }
+
+    private void completeStream(FtpConnection connection) {
+        FTPClient ftpClient = connection.getClient();
+        try {
+            if (!ftpClient.completePendingCommand()) {
+                FtpConnection.logServerReply(ftpClient);
             }
-            LOG.debug("Set {} downloaded as file {}", datasetId, outputFile);
         } catch (IOException io) {
-            throw new DownloadException("Error listing files", io);
+            LOG.warn("Error completing file transfer on {}", connection, io);
+        } finally {
+            releaseConnection(connection);
         }
     }
 
-    protected void downloadFile(File outputFile, FTPFile f) throws UpdaterException {
+    /**
+     * Download the checksum file of a dataset and return its value
+     * @param connection the FTP connection to use
+     * @param f the dataset file for which to retrieve the checksum
+     * @return the checksum, or null if no checksum is available
+     */
+    private String retrieveChecksum(FtpConnection connection, DatasetFile f) {
+        if (f.getChecksumFileName() == null) {
+            LOG.warn("No checksum file found for {}", f);
+            return null;
+        }
+        FTPClient ftpClient = connection.getClient();
+        ByteArrayOutputStream checksumContents = new ByteArrayOutputStream();
         try {
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            int retry = 0;
-            while (!ftpClient.retrieveFile(path + "/" + f.getName(), fos) && retry < RETRIES) {
-                LOG.warn("Failed to download file {}/{} - Retrying...", path, f.getName());
-                retry++;
-                if (retry == RETRIES) {
-                    throw new DownloadException("Failed to download " + path + "/" + f.getName());
+            if (ftpClient.retrieveFile(path + "/" + f.getChecksumFileName(), checksumContents)) {
+                String result = ChecksumUtils.parseChecksumFile(checksumContents.toString(StandardCharsets.UTF_8));
+                LOG.trace("Checksum for {} is {}", f, result);
+                return result;
+            }
+            FtpConnection.logServerReply(ftpClient);
+        } catch (IOException io) {
+            LOG.warn("Error downloading checksum file {}", f.getChecksumFileName(), io);
+        }
+        LOG.warn("Unable to retrieve checksum for {}, continuing without checksum verification", f);
+        return null;
+    }
+
+    /**
+     * Download a file from the FTP server. If a download is interrupted we try again, continuing from where the previous
+     * attempt stopped (instead of starting from the beginning)
+     * @param connection the FTP connection to use
+     * @param outputFile the file to write to
+     * @param f the file to download
+     * @param calculateChecksum if true then a checksum is calculated while downloading
+     * @return the checksum of the downloaded file, null if calculateChecksum is false
+     * @throws UpdaterException when the file could not be downloaded
+     */
+    protected String downloadFile(FtpConnection connection, File outputFile, DatasetFile f, boolean calculateChecksum)
+            throws UpdaterException {
+        String remoteFile = path + "/" + f.getName();
+        long expectedSize = f.getSize();
+        deleteIfExists(outputFile); // always start with a clean file
+
+        int attempt = 0;
+        IOException lastError = null;
+        while (attempt <= RETRIES) {
+            if (attempt > 0) {
+                LOG.warn("Failed to download file {} - Retrying...", remoteFile);
+                connection.reconnectIfNeeded();
+            }
+            attempt++;
+
+            long offset = outputFile.length();
+            if (expectedSize >= 0 && offset > expectedSize) {
+                LOG.warn("File {} is larger than expected ({} > {} bytes), starting download from scratch",
+                        outputFile, offset, expectedSize);
+                deleteIfExists(outputFile);
+                offset = 0;
+            }
+            if (offset > 0) {
+                LOG.info("Resuming download of {} at byte {} of {}", remoteFile, offset, expectedSize);
+            }
+
+            boolean completed = false;
+            MessageDigest digest = null;
+            FTPClient ftpClient = connection.getClient();
+            try (OutputStream fos = new FileOutputStream(outputFile, offset > 0)) {
+                OutputStream out = fos;
+                if (calculateChecksum) {
+                    // the checksum is calculated during download, so we only need to read what was downloaded before
+                    digest = ChecksumUtils.newDigest();
+                    ChecksumUtils.update(digest, outputFile);
+                    out = new DigestOutputStream(fos, digest);
                 }
+                ftpClient.setRestartOffset(offset);
+                completed = ftpClient.retrieveFile(remoteFile, out);
+                FtpConnection.logServerReply(ftpClient);
+            } catch (IOException io) {
+                LOG.warn("Error downloading file {}: {}", remoteFile, io.getMessage());
+                lastError = io;
+            } finally {
+                ftpClient.setRestartOffset(0);
             }
-            fos.close();
+
+            long size = outputFile.length();
+            if (completed && (expectedSize < 0 || size == expectedSize)) {
+                LOG.debug("Downloaded {} bytes of file {}", size, remoteFile);
+                return (digest == null ? null : ChecksumUtils.toHex(digest));
+            }
+            if (completed) {
+                LOG.warn("Downloaded file {} has size {}, expected {} bytes", remoteFile, size, expectedSize);
+            }
+        }
+        throw new DownloadException("Failed to download " + remoteFile + " after " + attempt + " attempts", lastError);
+    }
+
+    private static void deleteIfExists(File file) throws DownloadException {
+        try {
+            Files.deleteIfExists(file.toPath());
         } catch (IOException io) {
-            throw new DownloadException("Failed to download " + path + "/" + f.getName(), io);
+            throw new DownloadException("Unable to delete file " + file, io);
+        }
+    }
+
+    /**
+     * Close all connections to the FTP server
+     */
+    @Override
+    public void close() {
+        LOG.debug("Closing FTP connections...");
+        for (FtpConnection connection : allConnections) {
+            connection.disconnect();
         }
     }
 
@@ -0,0 +1,159 @@
+package europeana.sparql.updater;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * A single authenticated connection to the Europeana FTP server. Connections are pooled by the
+ * EuropeanaDatasetFtpServer and each connection takes care of (re)connecting itself when needed.
+ */
+class FtpConnection {
+
+    private static final Logger LOG = LogManager.getLogger(FtpConnection.class);
+
+    private final int connectionId;
+    private final String hostName;
+    private final int port;
+    private final String path;
+    private final String username;
+    private final String password;
+    private FTPClient ftpClient;
+
+    /**
+     * Initialize a new (not yet connected) FTP connection
+     * @param connectionId number to identify this connection in the logs
+     * @param hostName the host name of the ftp server
+     * @param port the port of the ftp server
+     * @param path the path on the server where datasets are available
+     * @param username the username to login
+     * @param password the password to login
+     */
+    FtpConnection(int connectionId, String hostName, int port, String path, String username, String password) {
+        this.connectionId = connectionId;
+        this.hostName = hostName;
+        this.port = port;
+        this.path = path;
+        this.username = username;
+        this.password = password;
+    }
+
+    FTPClient getClient() {
+        return ftpClient;
+    }
+
+    private void initConnection() {
+        if (ftpClient == null) {
+            LOG.info("Initialising connection {} to FTP server...", connectionId);
+            ftpClient = new FTPClient();
+        } else {
+            LOG.info("Re-establishing connection {} to FTP server...", connectionId);
+        }
+
+        // 1. setup connection
+        boolean connected = false;
+        try {
+            ftpClient.connect(hostName, port);
+            logServerReply(ftpClient);
+            int replyCode = ftpClient.getReplyCode();
+            if (!FTPReply.isPositiveCompletion(replyCode)) {
+                LOG.error("Error connecting to ftp server {}:{}, error code: {}", hostName, port, replyCode);
+                return;
+            }
+            connected = ftpClient.login(username, password);
+            logServerReply(ftpClient);
+            if (!connected) {
+                LOG.error("Could not login to FTP server");
+            } else {
+                LOG.info("Connection {} logged in to FTP server", connectionId);
+            }
+        } catch (IOException ex) {
+            LOG.error(ex.getMessage(), ex);
+        }
+
+        if (connected) {
+            // 2. set properties
+            try {
+                ftpClient.enterLocalPassiveMode();
+                ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+            } catch (IOException io) {
+                LOG.error("Error setting file type to binary", io);
+            }
+
+            // 3. go to folder with TTL files
+            try {
+                LOG.debug("Changing work directory to path {}...", path);
+                ftpClient.changeWorkingDirectory(path);
+                logServerReply(ftpClient);
+            } catch (IOException io) {
+                LOG.error("Error changing working directory to path {}", path, io);
+            }
+        }
+    }
+
+    static void logServerReply(FTPClient ftpClient) {
+        int replyCode = ftpClient.getReplyCode();
+        if (!FTPReply.isPositiveCompletion(replyCode)) {
+            LOG.error("Ftp server returned error code {}!", replyCode);
+        }
+        if (LOG.isDebugEnabled()) {
+            String[] replies = ftpClient.getReplyStrings();
+            if (replies != null && replies.length > 0) {
+                for (String aReply : replies) {
+                    LOG.debug("FTP server response = {}", aReply);
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure this connection is open. When processing a dataset takes long the server may close the connection to
+     * the ftp client, in which case we reconnect.
+     */
+    @SuppressWarnings("java:S1166") // no need to always log exceptions when checking status
+    void reconnectIfNeeded() {
+        if (ftpClient == null) {
+            initConnection();
+            return;
+        }
+        boolean connectionOk = false;
+        try {
+            connectionOk = ftpClient.sendNoOp();
+            LOG.debug("FTP connection {} ok = {}", connectionId, connectionOk);
+        } catch (IOException e) {
+            LOG.info("FTP connection {} was closed!", connectionId);
+        }
+        if (!connectionOk) {
+            try {
+                ftpClient.disconnect();
+            } catch (IOException e) {
+                LOG.warn("Error trying to disconnect FTP client", e);
+            }
+            initConnection();
+        }
+    }
+
+    /**
+     * Logout and disconnect from the FTP server
+     */
+    @SuppressWarnings("java:S1166") // connection may already be closed by the server
+    void disconnect() {
+        if (ftpClient != null && ftpClient.isConnected()) {
+            try {
+                ftpClient.logout();
+                ftpClient.disconnect();
+            } catch (IOException e) {
+                LOG.debug("Error disconnecting FTP connection {}", connectionId);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FTP connection " + connectionId;
+    }
+}
@@ -1,122 +1,631 @@
-/**
- * 
- */
-package europeana.sparql.updater;
-
-import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-
-import org.apache.commons.io.IOUtils;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-/**
- * Converts the ZIP files containing one TTL file per record into one single TTL file containing all records.
- * May be configured to split the contents of the ZIP files into files with a maximum number of records.
- * 
- * @author Nuno Freire
- * @since 19/02/2025
- */
-public class ImportFileCreator implements Closeable {
-
-	private static final Logger LOG = LogManager.getLogger(ImportFileCreator.class);
-
-	int maxRecordsPerImport;
-	String datasetId;
-	File dsZipFile;
-	Instant timestampFtp;
-
-	ZipInputStream zip;
-	ZipEntry entry;
-	File datasetTtlFile;
-	int nrEntriesInTotal = 0;
-
-	/**
-	 * @param datasetId 
-	 * @param dsZipFile the input ZIP file
-	 * @param datasetTtlFile the output TTL file
-	 * @param timestampFtp the last modified date of the Zip file on the FTP server
-	 * @param maxRecordsPerImport maximum records per TTL file
-	 * @throws IOException
-	 */
-	public ImportFileCreator(String datasetId, File dsZipFile, File datasetTtlFile, Instant timestampFtp,
-			int maxRecordsPerImport) throws IOException {
-		super();
-		this.datasetId = datasetId;
-		this.dsZipFile = dsZipFile;
-		this.timestampFtp = timestampFtp;
-		this.maxRecordsPerImport = maxRecordsPerImport;
-		this.datasetTtlFile = datasetTtlFile;
-		zip = new ZipInputStream(new FileInputStream(dsZipFile));
-		entry = zip.getNextEntry();
-	}
-
-	/**
-	 * Checks if there are records to create another file. Should be invoked before invoking createNextTtlFile()
-	 * 
-	 * @return true if there will be another file, false otherwise
-	 * @throws IOException
-	 */
-	public boolean hasNextTtlFile() throws IOException {
-		return entry != null;
-	}
-	
-	/**
-	 * Creates the next TTL file
-	 * 
-	 * @throws IOException
-	 */
-	public void createNextTtlFile() throws IOException {
-		LOG.trace("Generating TTL zip file {}...", datasetTtlFile);
-		try (FileOutputStream datasetTtlFileStream = new FileOutputStream(datasetTtlFile);
-				GZIPOutputStream gzipDatasetTtlStream = new GZIPOutputStream(datasetTtlFileStream);
-				Writer writer = new OutputStreamWriter(gzipDatasetTtlStream, StandardCharsets.UTF_8)) {
-			int nrEntries = 1;
-			while (entry != null && (maxRecordsPerImport <= 0 || maxRecordsPerImport >= nrEntries)) {
-				writeLines(writer, (nrEntries == 1), zip);
-				zip.closeEntry();
-				entry = zip.getNextEntry();
-				nrEntries++;
-				nrEntriesInTotal++;
-			}
-			LOG.trace("Added {} entries to file {}", nrEntries-1, dsZipFile);
-
-			if (entry == null) {
-				// add the triple with the last modification timestamp from the FTP server
-				LOG.trace("Adding the triple with the last modification timestamp from the FTP server...");
-				writer.write("\n\n<http://data.europeana.eu/dataset/");
-				writer.write(datasetId);
-				writer.write("> <http://purl.org/dc/terms/modified> \"");
-				writer.write(timestampFtp.toString());
-				writer.write("\"^^<http://www.w3.org/2001/XMLSchema#dateTime> .\n");
-			}
-		}
-	}
-
-	private void writeLines(Writer writer, boolean firstRecord, ZipInputStream zip) throws IOException {
-		String edmRdf = IOUtils.toString(zip, StandardCharsets.UTF_8);
-		String[] lines = edmRdf.split("\n");
-		for (String line : lines) {
-			if (firstRecord || !line.startsWith("@prefix")) {
-				writer.write(line);
-				writer.write("\n");
-			}
-		}
-	}
-
-	@Override
-	public void close() throws IOException {
-		zip.close();
-	}
-
-}
+/**
+ * 
+ */
+package europeana.sparql.updater;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import europeana.sparql.updater.util.ParallelGzipOutputStream;
+
+/**
+ * Converts the ZIP files containing one TTL file per record into one single TTL file containing all records.
+ * May be configured to split the contents of the ZIP files into files with a maximum number of records, and to convert
+ * the records to N-Triples. Records can be converted in parallel, in which case they are still written in the order in
+ * which they appear in the ZIP file.
+ * 
+ * @author Nuno Freire
+ * @since 19/02/2025
+ */
+public class ImportFileCreator implements TtlFileCreator {
+
+	private static final Logger LOG = LogManager.getLogger(ImportFileCreator.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] PREFIX = "@prefix".getBytes(StandardCharsets.US_ASCII);
+	private static final String DATASET_IRI_PREFIX = "http://data.europeana.eu/dataset/";
+	private static final int PENDING_RECORDS_PER_THREAD = 16;
+
+	ChunkPolicy chunkPolicy;
+	String datasetId;
+	File dsZipFile;
+	Instant timestampFtp;
+
+	ZipInputStream zip;
+	ZipFile zipFile;
+	Iterator<? extends ZipEntry> zipFileEntries;
+	ZipEntry entry;
+	boolean addTimestamp = true;
+	File datasetTtlFile;
+	int nrEntriesInTotal = 0;
+	RdfOutputFormat outputFormat = RdfOutputFormat.TURTLE;
+
+	int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	ExecutorService compressionExecutor;
+	int compressionThreads;
+
+	ExecutorService conversionExecutor;
+	int maxPendingRecords;
+	RecordQuarantine quarantine;
+	RecordManifest manifest;
+	private final Queue<Future<ConvertedRecord>> pendingRecords = new ArrayDeque<>();
+
+	private final byte[] readBuffer = new byte[BUFFER_SIZE];
+	private byte[] lineBuffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * @param datasetId 
+	 * @param dsZipFile the input ZIP file
+	 * @param datasetTtlFile the output TTL file
+	 * @param timestampFtp the last modified date of the Zip file on the FTP server
+	 * @param maxRecordsPerImport maximum records per TTL file
+	 * @throws IOException
+	 */
+	public ImportFileCreator(String datasetId, File dsZipFile, File datasetTtlFile, Instant timestampFtp,
+			int maxRecordsPerImport) throws IOException {
+		super();
+		this.datasetId = datasetId;
+		this.dsZipFile = dsZipFile;
+		this.timestampFtp = timestampFtp;
+		this.chunkPolicy = new RecordCountChunkPolicy(maxRecordsPerImport);
+		this.datasetTtlFile = datasetTtlFile;
+		zip = new ZipInputStream(new FileInputStream(dsZipFile));
+		entry = zip.getNextEntry();
+	}
+
+	/**
+	 * Create TTL files reading directly from a stream containing ZIP data (e.g. from the FTP server), so the ZIP file
+	 * doesn't have to be stored on disk first. Note that the stream is closed when this ImportFileCreator is closed.
+	 *
+	 * @param datasetId
+	 * @param dsZipStream the input ZIP data
+	 * @param datasetTtlFile the output TTL file
+	 * @param timestampFtp the last modified date of the Zip file on the FTP server
+	 * @param maxRecordsPerImport maximum records per TTL file
+	 * @throws IOException
+	 */
+	public ImportFileCreator(String datasetId, InputStream dsZipStream, File datasetTtlFile, Instant timestampFtp,
+			int maxRecordsPerImport) throws IOException {
+		super();
+		this.datasetId = datasetId;
+		this.timestampFtp = timestampFtp;
+		this.chunkPolicy = new RecordCountChunkPolicy(maxRecordsPerImport);
+		this.datasetTtlFile = datasetTtlFile;
+		zip = new ZipInputStream(dsZipStream);
+		entry = zip.getNextEntry();
+	}
+
+	/**
+	 * Create one TTL file from a range of entries of an (opened) ZIP file, so multiple files of the same dataset can be
+	 * created at the same time. Note that the ZIP file is not closed when this ImportFileCreator is closed.
+	 *
+	 * @param datasetId
+	 * @param zipFile the input ZIP file
+	 * @param entries the entries of the ZIP file to add
+	 * @param timestampFtp the last modified date of the Zip file on the FTP server
+	 * @param lastEntries true if these are the last entries of the dataset (so the timestamp triple is added)
+	 */
+	ImportFileCreator(String datasetId, ZipFile zipFile, List<? extends ZipEntry> entries, Instant timestampFtp,
+			boolean lastEntries) {
+		super();
+		this.datasetId = datasetId;
+		this.timestampFtp = timestampFtp;
+		this.chunkPolicy = (records, bytes) -> false;
+		this.zipFile = zipFile;
+		this.zipFileEntries = entries.iterator();
+		this.addTimestamp = lastEntries;
+		entry = (zipFileEntries.hasNext() ? zipFileEntries.next() : null);
+	}
+
+	/**
+	 * Checks if there are records to create another file. Should be invoked before invoking createNextTtlFile()
+	 * 
+	 * @return true if there will be another file, false otherwise
+	 * @throws IOException
+	 */
+	@Override
+	public boolean hasNextTtlFile() throws IOException {
+		return entry != null || !pendingRecords.isEmpty();
+	}
+	
+	/**
+	 * Creates the next TTL file
+	 * 
+	 * @return information about the created file
+	 * @throws IOException
+	 */
+	@Override
+	public TtlChunk createNextTtlFile() throws IOException {
+		return createNextTtlFile(datasetTtlFile);
+	}
+
+	/**
+	 * Creates the next TTL file at the provided location, instead of the output TTL file provided in the constructor
+	 *
+	 * @param ttlFile the file to write to
+	 * @return information about the created file
+	 * @throws IOException
+	 */
+	@Override
+	public TtlChunk createNextTtlFile(File ttlFile) throws IOException {
+		LOG.trace("Generating TTL zip file {}...", ttlFile);
+		int nrEntries = 0;
+		long nrBytes;
+		long nrTriples = 0; // -1 once a record is copied without counting its triples
+		try (FileOutputStream datasetTtlFileStream = new FileOutputStream(ttlFile);
+				OutputStream gzipDatasetTtlStream = createGzipStream(datasetTtlFileStream);
+				CountingOutputStream out = new CountingOutputStream(
+						new BufferedOutputStream(gzipDatasetTtlStream, BUFFER_SIZE))) {
+			boolean convertRecords = (conversionExecutor != null || quarantine != null || manifest != null);
+			StreamRDF ntriplesWriter = (outputFormat == RdfOutputFormat.NTRIPLES && !convertRecords
+					? createNTriplesWriter(out) : null);
+			while (hasNextTtlFile() && (nrEntries == 0 || !chunkPolicy.isChunkFull(nrEntries, out.getByteCount()))) {
+				if (convertRecords) {
+					ConvertedRecord record = nextConvertedRecord();
+					if (record == null) {
+						// record is in quarantine or didn't change
+						continue;
+					}
+					record.writeTo(out, (nrEntries == 0));
+					nrTriples = addTriples(nrTriples, record.triples());
+				} else {
+					try (InputStream in = openEntry()) {
+						if (ntriplesWriter == null) {
+							writeLines(out, (nrEntries == 0), in);
+							nrTriples = -1;
+						} else {
+							nrTriples = addTriples(nrTriples, parseRecord(ntriplesWriter, in));
+						}
+					} catch (RiotException e) {
+						throw new IOException("Error parsing record " + entry.getName() + " of dataset " + datasetId, e);
+					}
+					nextEntry();
+				}
+				nrEntries++;
+				nrEntriesInTotal++;
+			}
+			if (ntriplesWriter != null) {
+				ntriplesWriter.finish();
+			}
+			LOG.trace("Added {} entries ({} bytes) to file {}", nrEntries, out.getByteCount(), ttlFile);
+
+			if (addTimestamp && !hasNextTtlFile()) {
+				// add the triple with the last modification timestamp from the FTP server
+				LOG.trace("Adding the triple with the last modification timestamp from the FTP server...");
+				out.write(("\n\n" + getTimestampTriple(datasetId, timestampFtp)).getBytes(StandardCharsets.UTF_8));
+				nrTriples = addTriples(nrTriples, 1);
+			}
+			nrBytes = out.getByteCount();
+		}
+		return new TtlChunk(ttlFile, nrEntries, nrBytes, nrTriples);
+	}
+
+	private static long addTriples(long total, long triples) {
+		return (total < 0 || triples < 0 ? -1 : total + triples);
+	}
+
+	/**
+	 * Creates a (gzipped) file that only contains the triple with the last modification timestamp of a dataset, so it
+	 * can be loaded after all records of the dataset
+	 *
+	 * @param datasetId the id of the dataset
+	 * @param timestampFtp the last modified date of the Zip file on the FTP server
+	 * @param ttlFile the file to write to
+	 * @throws IOException
+	 */
+	public static void createTimestampFile(String datasetId, Instant timestampFtp, File ttlFile) throws IOException {
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(ttlFile))) {
+			out.write(getTimestampTriple(datasetId, timestampFtp).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static String getTimestampTriple(String datasetId, Instant timestampFtp) {
+		return "<" + DATASET_IRI_PREFIX + datasetId + "> <http://purl.org/dc/terms/modified> \""
+				+ timestampFtp.toString() + "\"^^<http://www.w3.org/2001/XMLSchema#dateTime> .\n";
+	}
+
+	/**
+	 * Opens the current entry. Closing the returned stream doesn't close the ZipInputStream, because parsers may close
+	 * their input while we need to continue reading the next entries.
+	 */
+	private InputStream openEntry() throws IOException {
+		if (zipFile != null) {
+			return zipFile.getInputStream(entry);
+		}
+		return CloseShieldInputStream.wrap(zip);
+	}
+
+	private void nextEntry() throws IOException {
+		if (zipFile != null) {
+			entry = (zipFileEntries.hasNext() ? zipFileEntries.next() : null);
+		} else {
+			zip.closeEntry();
+			entry = zip.getNextEntry();
+		}
+	}
+
+	/**
+	 * Sets the policy that decides how many records are put in each TTL file. By default this is a fixed number of
+	 * records (maxRecordsPerImport)
+	 *
+	 * @param chunkPolicy the policy to use
+	 */
+	public void setChunkPolicy(ChunkPolicy chunkPolicy) {
+		this.chunkPolicy = chunkPolicy;
+	}
+
+	/**
+	 * Sets whether the triple with the last modification timestamp is added to the last TTL file. By default it is,
+	 * but when a dataset is loaded directly in its final graph the timestamp should be loaded separately, after all
+	 * records were loaded (see createTimestampFile())
+	 *
+	 * @param addTimestamp false to leave out the timestamp triple
+	 */
+	public void setAddTimestamp(boolean addTimestamp) {
+		this.addTimestamp = addTimestamp;
+	}
+
+	/**
+	 * Sets the format of the generated files. By default records are copied as Turtle.
+	 *
+	 * @param outputFormat the format to write
+	 */
+	public void setOutputFormat(RdfOutputFormat outputFormat) {
+		this.outputFormat = outputFormat;
+	}
+
+	@Override
+	public RdfOutputFormat getOutputFormat() {
+		return outputFormat;
+	}
+
+	private OutputStream createGzipStream(OutputStream out) throws IOException {
+		if (compressionExecutor != null) {
+			return new ParallelGzipOutputStream(out, compressionLevel, compressionExecutor, compressionThreads);
+		}
+		return new GZIPOutputStream(out, BUFFER_SIZE) {
+			{
+				def.setLevel(compressionLevel);
+			}
+		};
+	}
+
+	/**
+	 * Sets how generated TTL files are compressed
+	 *
+	 * @param level the gzip compression level (0-9, or -1 for the default level)
+	 * @param executor if not null then data is compressed in parallel using this executor
+	 * @param threads the number of threads of the executor
+	 */
+	public void setCompression(int level, ExecutorService executor, int threads) {
+		this.compressionLevel = level;
+		this.compressionExecutor = executor;
+		this.compressionThreads = threads;
+	}
+
+	private static StreamRDF createNTriplesWriter(OutputStream out) {
+		StreamRDF writer = StreamRDFWriter.getWriterStream(out, RDFFormat.NTRIPLES);
+		writer.start();
+		return writer;
+	}
+
+	/**
+	 * Parses a record using the streaming RIOT parser and sends all triples to the writer, so each record is parsed
+	 * with its own prefixes. Blank node labels are generated per parse, so they are unique across records.
+	 *
+	 * @return the number of triples in the record
+	 */
+	private long parseRecord(StreamRDF destination, InputStream in) {
+		RecordStreamRDF record = new RecordStreamRDF(destination);
+		RDFParser.source(in)
+				.lang(Lang.TURTLE)
+				.base(DATASET_IRI_PREFIX + datasetId)
+				.parse(record);
+		return record.triples;
+	}
+
+	/**
+	 * Sets the quarantine for invalid records. If set, every record is parsed before it's written and records that
+	 * can't be parsed are added to the quarantine instead of being written (so they don't make loading of the whole
+	 * file fail). If not set (default), records are not validated.
+	 *
+	 * @param quarantine the quarantine to use, or null to disable validation
+	 */
+	public void setQuarantine(RecordQuarantine quarantine) {
+		this.quarantine = quarantine;
+	}
+
+	/**
+	 * Sets the manifest that keeps track of the contents of records. If the manifest has a previous version of the
+	 * dataset, records that didn't change are left out.
+	 *
+	 * @param manifest the manifest to use, or null (default) to write all records without keeping track of them
+	 */
+	public void setManifest(RecordManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Sets the executor used to convert records in parallel. Records are read from the ZIP file ahead of the record
+	 * that is being written, converted by the executor and written in their original order.
+	 *
+	 * @param executor if not null then records are converted in parallel using this executor
+	 * @param threads the number of threads of the executor
+	 */
+	public void setConversion(ExecutorService executor, int threads) {
+		this.conversionExecutor = executor;
+		this.maxPendingRecords = Math.max(1, threads) * PENDING_RECORDS_PER_THREAD;
+	}
+
+	/**
+	 * Returns the next converted record, or null if the record is in quarantine or didn't change. If there's a
+	 * conversion executor then before waiting for the record, more records are read from the ZIP file and submitted
+	 * for conversion so the executor always has work to do.
+	 */
+	private ConvertedRecord nextConvertedRecord() throws IOException {
+		if (conversionExecutor == null) {
+			String entryName = entry.getName();
+			byte[] data = readEntry();
+			RecordManifest.RecordState state = checkRecord(entryName, data);
+			return (state == RecordManifest.RecordState.UNCHANGED ? null : convertRecord(entryName, data));
+		}
+		while (entry != null && pendingRecords.size() < maxPendingRecords) {
+			String entryName = entry.getName();
+			byte[] data = readEntry();
+			RecordManifest.RecordState state = checkRecord(entryName, data);
+			if (state != RecordManifest.RecordState.UNCHANGED) {
+				pendingRecords.add(conversionExecutor.submit(() -> convertRecord(entryName, data)));
+			}
+		}
+		Future<ConvertedRecord> next = pendingRecords.poll();
+		if (next == null) {
+			// all remaining records didn't change
+			return null;
+		}
+		try {
+			return next.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while converting records of dataset " + datasetId);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException io) {
+				throw io;
+			}
+			throw new IOException("Error converting record of dataset " + datasetId, e.getCause());
+		}
+	}
+
+	private byte[] readEntry() throws IOException {
+		byte[] data;
+		try (InputStream in = openEntry()) {
+			data = in.readAllBytes();
+		}
+		nextEntry();
+		return data;
+	}
+
+	private RecordManifest.RecordState checkRecord(String entryName, byte[] data) {
+		return (manifest == null ? RecordManifest.RecordState.ADDED : manifest.check(entryName, data));
+	}
+
+	/**
+	 * The triples of added and changed records are kept in the manifest, so they can be removed exactly when the
+	 * record changes again
+	 */
+	private RecordManifest.RecordTriples collectTriples(String entryName, StreamRDF destination) {
+		return (manifest == null ? null : manifest.collectTriples(entryName, destination));
+	}
+
+	private ConvertedRecord convertRecord(String entryName, byte[] data) throws IOException {
+		if (outputFormat == RdfOutputFormat.NTRIPLES) {
+			ByteArrayOutputStream converted = new ByteArrayOutputStream(data.length * 2);
+			StreamRDF ntriplesWriter = createNTriplesWriter(converted);
+			RecordManifest.RecordTriples recordTriples = collectTriples(entryName, ntriplesWriter);
+			long triples;
+			try {
+				triples = parseRecord(recordTriples == null ? ntriplesWriter : recordTriples,
+						new ByteArrayInputStream(data));
+			} catch (RiotException e) {
+				return rejectRecord(entryName, data, e);
+			}
+			if (recordTriples != null) {
+				recordTriples.commit();
+			}
+			ntriplesWriter.finish();
+			byte[] result = converted.toByteArray();
+			return new ConvertedRecord(result, result, triples);
+		}
+		long triples = -1;
+		if (quarantine != null || manifest != null) {
+			RecordManifest.RecordTriples recordTriples = collectTriples(entryName, StreamRDFLib.sinkNull());
+			try {
+				triples = parseRecord(recordTriples == null ? StreamRDFLib.sinkNull() : recordTriples,
+						new ByteArrayInputStream(data));
+			} catch (RiotException e) {
+				return rejectRecord(entryName, data, e);
+			}
+			if (recordTriples != null) {
+				recordTriples.commit();
+			}
+		}
+		// same as writeLines(), but we don't know yet if this will be the first record of a chunk
+		ByteArrayOutputStream allLines = new ByteArrayOutputStream(data.length + 1);
+		ByteArrayOutputStream withoutPrefixes = new ByteArrayOutputStream(data.length + 1);
+		int lineStart = 0;
+		while (lineStart < data.length) {
+			int lineEnd = lineStart;
+			while (lineEnd < data.length && data[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			int length = lineEnd - lineStart;
+			allLines.write(data, lineStart, length);
+			allLines.write('\n');
+			if (!startsWithPrefix(data, lineStart, length)) {
+				withoutPrefixes.write(data, lineStart, length);
+				withoutPrefixes.write('\n');
+			}
+			lineStart = lineEnd + 1;
+		}
+		return new ConvertedRecord(allLines.toByteArray(), withoutPrefixes.toByteArray(), triples);
+	}
+
+	private ConvertedRecord rejectRecord(String entryName, byte[] data, RiotException e) throws IOException {
+		if (quarantine == null) {
+			throw new IOException("Error parsing record " + entryName + " of dataset " + datasetId, e);
+		}
+		quarantine.add(entryName, e.getMessage(), data);
+		return null;
+	}
+
+	/**
+	 * Copies a record line by line to the output, leaving out @prefix lines if it's not the first record. This works
+	 * directly on the (UTF-8) bytes and never holds more than one line in memory, so records don't need to be decoded
+	 * and large records don't need to fit in memory.
+	 */
+	private void writeLines(OutputStream out, boolean firstRecord, InputStream in) throws IOException {
+		int lineLength = 0; // number of bytes of the current line that are stored in lineBuffer
+		int read = in.read(readBuffer);
+		while (read != -1) {
+			int lineStart = 0;
+			for (int i = 0; i < read; i++) {
+				if (readBuffer[i] == '\n') {
+					if (lineLength == 0) {
+						// whole line is in the read buffer, so no need to copy it
+						writeLine(out, firstRecord, readBuffer, lineStart, i - lineStart);
+					} else {
+						lineLength = appendToLine(lineLength, lineStart, i - lineStart);
+						writeLine(out, firstRecord, lineBuffer, 0, lineLength);
+						lineLength = 0;
+					}
+					lineStart = i + 1;
+				}
+			}
+			lineLength = appendToLine(lineLength, lineStart, read - lineStart);
+			read = in.read(readBuffer);
+		}
+		if (lineLength > 0) {
+			writeLine(out, firstRecord, lineBuffer, 0, lineLength);
+		}
+	}
+
+	private int appendToLine(int lineLength, int offset, int length) {
+		if (length == 0) {
+			return lineLength;
+		}
+		if (lineLength + length > lineBuffer.length) {
+			lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + length));
+		}
+		System.arraycopy(readBuffer, offset, lineBuffer, lineLength, length);
+		return lineLength + length;
+	}
+
+	private void writeLine(OutputStream out, boolean firstRecord, byte[] buffer, int offset, int length)
+			throws IOException {
+		if (firstRecord || !startsWithPrefix(buffer, offset, length)) {
+			out.write(buffer, offset, length);
+			out.write('\n');
+		}
+	}
+
+	private static boolean startsWithPrefix(byte[] buffer, int offset, int length) {
+		if (length < PREFIX.length) {
+			return false;
+		}
+		for (int i = 0; i < PREFIX.length; i++) {
+			if (buffer[offset + i] != PREFIX[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<ConvertedRecord> pending : pendingRecords) {
+			pending.cancel(true);
+		}
+		pendingRecords.clear();
+		if (zip != null) {
+			zip.close();
+		}
+	}
+
+	/**
+	 * A converted record, ready to be written. For Turtle output only the first record of a chunk keeps its prefixes.
+	 * The number of triples is -1 if the record was copied without parsing it.
+	 */
+	private record ConvertedRecord(byte[] firstInChunk, byte[] other, long triples) {
+
+		void writeTo(OutputStream out, boolean firstRecord) throws IOException {
+			out.write(firstRecord ? firstInChunk : other);
+		}
+	}
+
+	/**
+	 * Passes the triples of one record to the writer of the chunk. Start and finish events are ignored, because the
+	 * parser sends them for each record and all records of a chunk are written to the same output. Triples are
+	 * counted on the way.
+	 */
+	private static final class RecordStreamRDF extends StreamRDFWrapper {
+
+		private long triples;
+
+		RecordStreamRDF(StreamRDF chunkWriter) {
+			super(chunkWriter);
+		}
+
+		@Override
+		public void triple(Triple triple) {
+			triples++;
+			super.triple(triple);
+		}
+
+		@Override
+		public void start() {
+			// the chunk writer is started when the chunk is created
+		}
+
+		@Override
+		public void finish() {
+			// the chunk writer is finished when the chunk is complete
+		}
+	}
+
+}
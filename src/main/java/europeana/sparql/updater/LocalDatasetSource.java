@@ -0,0 +1,136 @@
+package europeana.sparql.updater;
+
+import europeana.sparql.updater.exception.DownloadException;
+import europeana.sparql.updater.exception.UpdaterException;
+import europeana.sparql.updater.util.ChecksumUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Dataset source that reads dataset zip files from a folder on a local (or network mounted) drive, for example a
+ * pre-staged copy or a mirror of the Europeana FTP server. The folder is expected to have the same layout as the FTP
+ * server: one <datasetId>.zip file per dataset and optionally a <datasetId>.zip.md5sum checksum file.
+ */
+public class LocalDatasetSource implements DatasetSource {
+
+    private static final Logger LOG = LogManager.getLogger(LocalDatasetSource.class);
+
+    private static final int MAX_PARALLEL_COPIES = 2;
+
+    private final File folder;
+    private final boolean verifyChecksum;
+
+    /**
+     * Initialize a new local dataset source
+     * @param folder the folder containing the dataset zip files
+     * @param verifyChecksum if true then files are verified using the checksum file (if present)
+     */
+    public LocalDatasetSource(File folder, boolean verifyChecksum) {
+        this.folder = folder;
+        this.verifyChecksum = verifyChecksum;
+        if (!folder.isDirectory()) {
+            throw new IllegalArgumentException("Folder " + folder.getAbsolutePath() + " does not exist");
+        }
+    }
+
+    private DatasetListing createListing(File[] files) {
+        DatasetListing listing = new DatasetListing();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile()) {
+                    listing.addFile(f.getName(), f.length(), Instant.ofEpochMilli(f.lastModified()));
+                }
+            }
+        }
+        return listing;
+    }
+
+    @Override
+    public List<Dataset> listDatasets() {
+        LOG.info("Listing data sets in folder {}...", folder);
+        return createListing(folder.listFiles()).toDatasets();
+    }
+
+    @Override
+    public DatasetFile stat(String datasetId) {
+        return createListing(folder.listFiles((dir, name) -> name.startsWith(datasetId + "."))).get(datasetId);
+    }
+
+    private DatasetFile statOrFail(String datasetId) throws DownloadException {
+        DatasetFile datasetFile = stat(datasetId);
+        if (datasetFile == null) {
+            throw new DownloadException("No zip file found for dataset " + datasetId + " in " + folder);
+        }
+        return datasetFile;
+    }
+
+    private String readChecksum(DatasetFile datasetFile) throws DownloadException {
+        if (!verifyChecksum) {
+            return null;
+        }
+        if (datasetFile.getChecksumFileName() == null) {
+            LOG.warn("No checksum file found for {}", datasetFile);
+            return null;
+        }
+        try {
+            return ChecksumUtils.parseChecksumFile(Files.readString(
+                    new File(folder, datasetFile.getChecksumFileName()).toPath(), StandardCharsets.UTF_8));
+        } catch (IOException io) {
+            throw new DownloadException("Error reading checksum file " + datasetFile.getChecksumFileName(), io);
+        }
+    }
+
+    @Override
+    public DownloadStream openStream(String datasetId) throws UpdaterException {
+        DatasetFile datasetFile = statOrFail(datasetId);
+        String expectedChecksum = readChecksum(datasetFile);
+        try {
+            return new DownloadStream(Files.newInputStream(new File(folder, datasetFile.getName()).toPath()),
+                    datasetFile, expectedChecksum, null);
+        } catch (IOException io) {
+            throw new DownloadException("Error opening " + datasetFile, io);
+        }
+    }
+
+    @Override
+    public void download(File outputFile, String datasetId) throws UpdaterException {
+        DatasetFile datasetFile = statOrFail(datasetId);
+        String expectedChecksum = readChecksum(datasetFile);
+        File sourceFile = new File(folder, datasetFile.getName());
+        try {
+            Files.copy(sourceFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (expectedChecksum != null) {
+                MessageDigest digest = ChecksumUtils.newDigest();
+                ChecksumUtils.update(digest, outputFile);
+                String checksum = ChecksumUtils.toHex(digest);
+                if (!expectedChecksum.equals(checksum)) {
+                    Files.delete(outputFile.toPath());
+                    throw new DownloadException("Checksum of " + datasetFile + " is " + checksum + ", but expected "
+                            + expectedChecksum);
+                }
+            }
+        } catch (IOException io) {
+            throw new DownloadException("Error copying " + sourceFile + " to " + outputFile, io);
+        }
+        LOG.debug("Set {} copied to file {}", datasetId, outputFile);
+    }
+
+    @Override
+    public int getMaxParallelDownloads() {
+        return MAX_PARALLEL_COPIES;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
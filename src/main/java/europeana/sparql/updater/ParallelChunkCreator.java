@@ -0,0 +1,242 @@
+package europeana.sparql.updater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Creates multiple TTL files (chunks) of a downloaded dataset at the same time. Unlike a ZipInputStream, a ZipFile
+ * reads the list of entries from the central directory and allows reading entries in any order, so the entries are
+ * divided into ranges and each range is converted into a chunk by a separate task. Chunks are returned in the order of
+ * the entries in the zip file.
+ */
+public class ParallelChunkCreator implements TtlFileCreator {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelChunkCreator.class);
+
+    private final String datasetId;
+    private final ZipFile zipFile;
+    private final List<? extends ZipEntry> entries;
+    private final File datasetTtlFile;
+    private final Instant timestampFtp;
+    private final ExecutorService executor;
+    private final int parallelChunks;
+    private final Queue<PendingChunk> pendingChunks = new ArrayDeque<>();
+
+    private ChunkPolicy chunkPolicy;
+    private RdfOutputFormat outputFormat = RdfOutputFormat.TURTLE;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private ExecutorService compressionExecutor;
+    private int compressionThreads;
+    private RecordQuarantine quarantine;
+    private RecordManifest manifest;
+    private boolean addTimestamp = true;
+
+    private int nextEntry;
+    private int nextPartNr;
+
+    private record PendingChunk(File partFile, Future<TtlChunk> result) {
+    }
+
+    /**
+     * Initialize a new parallel chunk creator
+     * @param datasetId the id of the dataset
+     * @param dsZipFile the downloaded zip file
+     * @param datasetTtlFile the default output file
+     * @param timestampFtp the last modified date of the Zip file on the FTP server
+     * @param chunkPolicy decides how many records are put in each chunk
+     * @param executor the executor used to create chunks
+     * @param parallelChunks the maximum number of chunks that are created at the same time
+     * @throws IOException when there's a problem opening the zip file
+     */
+    public ParallelChunkCreator(String datasetId, File dsZipFile, File datasetTtlFile, Instant timestampFtp,
+                                ChunkPolicy chunkPolicy, ExecutorService executor, int parallelChunks) throws IOException {
+        this.datasetId = datasetId;
+        this.zipFile = new ZipFile(dsZipFile);
+        this.entries = Collections.list(zipFile.entries());
+        this.datasetTtlFile = datasetTtlFile;
+        this.timestampFtp = timestampFtp;
+        this.chunkPolicy = chunkPolicy;
+        this.executor = executor;
+        this.parallelChunks = Math.max(1, parallelChunks);
+        LOG.debug("Zip file {} contains {} entries", dsZipFile, entries.size());
+    }
+
+    @Override
+    public boolean hasNextTtlFile() {
+        return nextEntry < entries.size() || !pendingChunks.isEmpty();
+    }
+
+    @Override
+    public TtlChunk createNextTtlFile() throws IOException {
+        return createNextTtlFile(datasetTtlFile);
+    }
+
+    @Override
+    public TtlChunk createNextTtlFile(File ttlFile) throws IOException {
+        while (pendingChunks.size() < parallelChunks && nextEntry < entries.size()) {
+            submitNextRange();
+        }
+        PendingChunk next = pendingChunks.poll();
+        if (next == null) {
+            throw new IOException("No more records in dataset " + datasetId);
+        }
+        TtlChunk chunk = getResult(next);
+        Files.move(chunk.getFile().toPath(), ttlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return new TtlChunk(ttlFile, chunk.getRecords(), chunk.getBytes(), chunk.getTriples());
+    }
+
+    /**
+     * Determine the next range of entries using the chunk policy, based on the uncompressed size of entries as listed
+     * in the zip file, and start creating a chunk for it
+     */
+    private void submitNextRange() {
+        int start = nextEntry;
+        int records = 0;
+        long bytes = 0;
+        while (nextEntry < entries.size() && (records == 0 || !chunkPolicy.isChunkFull(records, bytes))) {
+            bytes += Math.max(0, entries.get(nextEntry).getSize());
+            records++;
+            nextEntry++;
+        }
+        List<? extends ZipEntry> range = entries.subList(start, nextEntry);
+        boolean lastRange = (nextEntry == entries.size());
+        File partFile = new File(datasetTtlFile.getParentFile(), datasetId + "_part" + nextPartNr
+                + outputFormat.getFileExtension());
+        nextPartNr++;
+        LOG.trace("Creating file {} with entries {} to {}", partFile, start, nextEntry);
+        pendingChunks.add(new PendingChunk(partFile, executor.submit(() -> createChunk(range, lastRange, partFile))));
+    }
+
+    private TtlChunk createChunk(List<? extends ZipEntry> range, boolean lastRange, File partFile) throws IOException {
+        try (ImportFileCreator creator = new ImportFileCreator(datasetId, zipFile, range, timestampFtp,
+                lastRange && addTimestamp)) {
+            creator.setOutputFormat(outputFormat);
+            creator.setCompression(compressionLevel, compressionExecutor, compressionThreads);
+            creator.setQuarantine(quarantine);
+            creator.setManifest(manifest);
+            return creator.createNextTtlFile(partFile);
+        }
+    }
+
+    private TtlChunk getResult(PendingChunk pending) throws IOException {
+        try {
+            return pending.result().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while creating file " + pending.partFile());
+        } catch (ExecutionException e) {
+            deleteFile(pending.partFile());
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Error creating file " + pending.partFile(), e.getCause());
+        }
+    }
+
+    /**
+     * Sets the policy that decides how many records are put in each file
+     * @param chunkPolicy the policy to use
+     */
+    public void setChunkPolicy(ChunkPolicy chunkPolicy) {
+        this.chunkPolicy = chunkPolicy;
+    }
+
+    /**
+     * Sets the format of the generated files. By default records are copied as Turtle.
+     * @param outputFormat the format to write
+     */
+    public void setOutputFormat(RdfOutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    @Override
+    public RdfOutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Sets how generated files are compressed
+     * @param level the gzip compression level (0-9, or -1 for the default level)
+     * @param executor if not null then data is compressed in parallel using this executor
+     * @param threads the number of threads of the executor
+     */
+    public void setCompression(int level, ExecutorService executor, int threads) {
+        this.compressionLevel = level;
+        this.compressionExecutor = executor;
+        this.compressionThreads = threads;
+    }
+
+    /**
+     * Sets the quarantine for invalid records, if null (default) records are not validated
+     * @param quarantine the quarantine to use
+     */
+    public void setQuarantine(RecordQuarantine quarantine) {
+        this.quarantine = quarantine;
+    }
+
+    /**
+     * Sets the manifest that keeps track of the contents of records, if null (default) all records are written
+     * @param manifest the manifest to use
+     */
+    public void setManifest(RecordManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Sets whether the triple with the last modification timestamp is added to the last file (default true)
+     * @param addTimestamp false to leave out the timestamp triple
+     */
+    public void setAddTimestamp(boolean addTimestamp) {
+        this.addTimestamp = addTimestamp;
+    }
+
+    /**
+     * Stops creating files and removes files that were created but not returned
+     */
+    @Override
+    public void close() throws IOException {
+        for (PendingChunk pending : pendingChunks) {
+            // tasks that are running are allowed to finish, so we can remove their file afterwards
+            pending.result().cancel(false);
+        }
+        for (PendingChunk pending : pendingChunks) {
+            if (!pending.result().isCancelled()) {
+                try {
+                    pending.result().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LOG.trace("Ignoring error creating unused file {}", pending.partFile(), e);
+                }
+            }
+            deleteFile(pending.partFile());
+        }
+        pendingChunks.clear();
+        zipFile.close();
+    }
+
+    private static void deleteFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOG.warn("Unable to delete file {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package europeana.sparql.updater;
+
+import europeana.sparql.updater.exception.DownloadException;
+import europeana.sparql.updater.exception.UpdaterException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads dataset zip files in the background, so the next datasets are already downloaded while the current one is
+ * being loaded into Virtuoso. To limit disk usage only a limited number of datasets is downloaded ahead.
+ */
+public class ParallelDownloader implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelDownloader.class);
+
+    private static final int CLOSE_WAIT_TIME = 30; // seconds
+
+    private final DatasetSource datasetSource;
+    private final File outputFolder;
+    private final int maxDownloadsAhead;
+    private final ExecutorService executor;
+    private final Queue<Dataset> pending = new ArrayDeque<>();
+    private final Map<Dataset, Future<File>> downloads = new HashMap<>();
+    private final Set<Dataset> discarded = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Initialize a new parallel downloader
+     * @param datasetSource the source to download from
+     * @param outputFolder the folder where zip files are stored
+     * @param maxDownloadsAhead the maximum number of downloads that are running or finished but not yet processed
+     */
+    public ParallelDownloader(DatasetSource datasetSource, File outputFolder, int maxDownloadsAhead) {
+        this.datasetSource = datasetSource;
+        this.outputFolder = outputFolder;
+        this.maxDownloadsAhead = Math.max(1, maxDownloadsAhead);
+        this.executor = Executors.newFixedThreadPool(this.maxDownloadsAhead, r -> {
+            Thread t = new Thread(r, "dataset-download");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Schedule the provided datasets for download. Datasets should be provided in the order in which they will be
+     * requested using getZipFile()
+     * @param datasets the datasets to download
+     */
+    public synchronized void schedule(List<Dataset> datasets) {
+        pending.addAll(datasets);
+        startNextDownloads();
+    }
+
+    private void startNextDownloads() {
+        while (downloads.size() < maxDownloadsAhead && !pending.isEmpty()) {
+            Dataset ds = pending.poll();
+            File zipFile = getZipFileLocation(ds);
+            LOG.debug("Starting background download of dataset {}...", ds);
+            downloads.put(ds, executor.submit(() -> {
+                try {
+                    datasetSource.download(zipFile, ds.getId());
+                } finally {
+                    // blocking FTP reads aren't interrupted, so a download may only end after we were closed
+                    if (closed || discarded.contains(ds)) {
+                        deleteZipFile(zipFile);
+                    }
+                }
+                return zipFile;
+            }));
+        }
+    }
+
+    private File getZipFileLocation(Dataset ds) {
+        return new File(outputFolder, ds.getId() + ".zip");
+    }
+
+    /**
+     * Return the downloaded zip file of a dataset, waiting for the download to finish if necessary. If the dataset
+     * wasn't scheduled it is downloaded directly.
+     * @param ds the dataset to return the zip file of
+     * @return the downloaded zip file
+     * @throws UpdaterException when there is a problem downloading the file
+     */
+    public File getZipFile(Dataset ds) throws UpdaterException {
+        Future<File> download;
+        synchronized (this) {
+            download = downloads.remove(ds);
+            startNextDownloads();
+        }
+        if (download == null) {
+            File zipFile = getZipFileLocation(ds);
+            datasetSource.download(zipFile, ds.getId());
+            return zipFile;
+        }
+
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DownloadException("Interrupted while downloading dataset " + ds, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UpdaterException ue) {
+                throw ue;
+            }
+            throw new DownloadException("Error downloading dataset " + ds, e.getCause());
+        }
+    }
+
+    /**
+     * Stop downloading a dataset of which the zip file won't be requested (e.g. because processing the dataset failed
+     * before), so it doesn't take the place of the next download. Does nothing if the zip file was already requested.
+     * @param ds the dataset to discard
+     */
+    public void discard(Dataset ds) {
+        Future<File> download;
+        synchronized (this) {
+            pending.remove(ds);
+            download = downloads.remove(ds);
+            if (download == null) {
+                return;
+            }
+            LOG.debug("Discarding download of dataset {}", ds);
+            discarded.add(ds);
+            download.cancel(true);
+            startNextDownloads();
+        }
+        // a download that is still running removes its own file when it finishes
+        if (download.isDone()) {
+            deleteZipFile(getZipFileLocation(ds));
+        }
+    }
+
+    /**
+     * Stop all downloads and remove files that were downloaded but not requested. Downloads that are still running
+     * after a while remove their own file when they finish.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_WAIT_TIME, TimeUnit.SECONDS)) {
+                LOG.warn("Downloads still running after {} seconds", CLOSE_WAIT_TIME);
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for downloads to stop", e);
+            Thread.currentThread().interrupt();
+        }
+        for (Dataset ds : downloads.keySet()) {
+            deleteZipFile(getZipFileLocation(ds));
+        }
+        downloads.clear();
+    }
+
+    private static void deleteZipFile(File zipFile) {
+        try {
+            LOG.debug("Deleting unused zip file {}", zipFile);
+            Files.deleteIfExists(zipFile.toPath());
+        } catch (IOException e) {
+            LOG.warn("Unable to delete file {}", zipFile, e);
+        }
+    }
+}
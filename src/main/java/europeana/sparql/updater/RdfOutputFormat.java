@@ -0,0 +1,31 @@
+package europeana.sparql.updater;
+
+/**
+ * Formats in which the records of a dataset can be written to the (gzipped) files that are loaded into Virtuoso
+ */
+public enum RdfOutputFormat {
+
+    /**
+     * Records are copied as is (Turtle), only the prefixes of the first record are kept
+     */
+    TURTLE(".ttl.gz"),
+
+    /**
+     * Each record is parsed and written as N-Triples, so records may use different prefixes and Virtuoso doesn't have
+     * to resolve prefixes when loading
+     */
+    NTRIPLES(".nt.gz");
+
+    private final String fileExtension;
+
+    RdfOutputFormat(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    /**
+     * @return the extension of generated files, Virtuoso uses this to determine the format when loading a file
+     */
+    public String getFileExtension() {
+        return fileExtension;
+    }
+}
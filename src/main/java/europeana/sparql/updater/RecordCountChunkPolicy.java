@@ -0,0 +1,27 @@
+package europeana.sparql.updater;
+
+/**
+ * Chunk policy that puts a fixed maximum number of records in each chunk
+ */
+public class RecordCountChunkPolicy implements ChunkPolicy {
+
+    private final int maxRecords;
+
+    /**
+     * Create a new record count chunk policy
+     * @param maxRecords maximum number of records per chunk, if 0 or less then there is no maximum
+     */
+    public RecordCountChunkPolicy(int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    @Override
+    public boolean isChunkFull(int records, long bytes) {
+        return maxRecords > 0 && records >= maxRecords;
+    }
+
+    @Override
+    public String toString() {
+        return "max " + maxRecords + " records per chunk";
+    }
+}
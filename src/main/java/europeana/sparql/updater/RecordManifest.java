@@ -0,0 +1,352 @@
+package europeana.sparql.updater;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the contents of the records of a dataset, so records that didn't change since the previous version
+ * can be left out when loading a new version. The manifest maps the name of every record (zip entry) to a hash of its
+ * contents (the first 8 bytes of the MD5 digest) and is stored as a binary file sorted by record name.
+ * <p>
+ * Next to the manifest a sorted (gzipped) dump is kept of the triples of every record, one line per triple and record
+ * (N-Triples, a tab and the record name). Triples that occur in multiple records (e.g. contextual entities) have a
+ * line for each record. When a new version is loaded, a triple is removed from the dataset graph only if all records
+ * that contained it were changed or removed. Triples that are still part of a changed record are removed as well, but
+ * they are added again when the new version of the record is merged into the dataset graph.
+ * <p>
+ * Blank node labels are generated by the parser, so triples with blank nodes can't be located in the dataset graph.
+ * A manifest of a version with blank nodes is therefore not comparable and the next version is loaded completely.
+ */
+public class RecordManifest implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(RecordManifest.class);
+
+    private static final int FORMAT_VERSION = 1;
+    // triples that are not part of a record (i.e. the modification timestamp) are replaced with every new version
+    private static final String DATASET_RECORD = "";
+
+    /**
+     * The result of comparing a record with the previous version of the dataset
+     */
+    public enum RecordState { ADDED, CHANGED, UNCHANGED }
+
+    private final Map<String, Long> previousHashes;
+    private final File previousTriplesFile;
+    private final File triplesFile;
+    private final SortedLineWriter triples;
+    private final Map<String, Long> hashes = new ConcurrentHashMap<>();
+    private final AtomicInteger changedRecords = new AtomicInteger();
+    private volatile String notComparableReason;
+
+    /**
+     * Initialize a new manifest without a previous version, so all records are new
+     * @param triplesFile file to write the triples of the new version to
+     */
+    public RecordManifest(File triplesFile) {
+        this(Collections.emptyMap(), null, triplesFile);
+    }
+
+    private RecordManifest(Map<String, Long> previousHashes, File previousTriplesFile, File triplesFile) {
+        this.previousHashes = previousHashes;
+        this.previousTriplesFile = previousTriplesFile;
+        this.triplesFile = triplesFile;
+        this.triples = new SortedLineWriter(triplesFile);
+    }
+
+    /**
+     * Read the manifest of the previous version of a dataset
+     * @param file the manifest file
+     * @param previousTriplesFile the triples of the records of the previous version
+     * @param triplesFile file to write the triples of the new version to
+     * @return a new manifest that compares records with the ones in the file
+     * @throws IOException when there's a problem reading the file
+     */
+    public static RecordManifest read(File file, File previousTriplesFile, File triplesFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported manifest version " + version + " in file " + file);
+            }
+            int size = in.readInt();
+            Map<String, Long> previousHashes = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                previousHashes.put(in.readUTF(), in.readLong());
+            }
+            LOG.debug("Read manifest {} with {} records", file, size);
+            return new RecordManifest(previousHashes, previousTriplesFile, triplesFile);
+        }
+    }
+
+    /**
+     * @return true if records are compared with a previous version, so unchanged records can be left out
+     */
+    public boolean hasPreviousVersion() {
+        return previousTriplesFile != null;
+    }
+
+    /**
+     * Add a record of the new version to the manifest and compare it with the previous version. This method may be
+     * called from multiple threads.
+     * @param recordName the name of the record (zip entry)
+     * @param data the contents of the record
+     * @return whether the record was added, changed or unchanged
+     */
+    public RecordState check(String recordName, byte[] data) {
+        long hash = hash(data);
+        hashes.put(recordName, hash);
+        Long previousHash = previousHashes.get(recordName);
+        if (previousHash == null) {
+            return RecordState.ADDED;
+        }
+        if (previousHash == hash) {
+            return RecordState.UNCHANGED;
+        }
+        changedRecords.incrementAndGet();
+        return RecordState.CHANGED;
+    }
+
+    private static long hash(byte[] data) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("MD5").digest(data)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported", e);
+        }
+    }
+
+    /**
+     * Wraps the destination of a parsed record, so the triples of the (added or changed) record are collected. The
+     * collected triples are only added to the manifest when commit() is called, so a record that turns out to be
+     * invalid halfway doesn't leave any triples behind.
+     * @param recordName the name of the record (zip entry)
+     * @param destination where to send the triples of the record
+     * @return a StreamRDF that collects triples and passes them to the destination
+     */
+    public RecordTriples collectTriples(String recordName, StreamRDF destination) {
+        return new RecordTriples(recordName, destination);
+    }
+
+    /**
+     * Collects the triples of one record, see collectTriples()
+     */
+    public final class RecordTriples extends StreamRDFWrapper {
+        private final String recordName;
+        private final List<String> lines = new ArrayList<>();
+        private boolean blankNodes;
+
+        private RecordTriples(String recordName, StreamRDF destination) {
+            super(destination);
+            this.recordName = recordName;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            Node subject = triple.getSubject();
+            Node object = triple.getObject();
+            if (subject.isBlank() || object.isBlank()) {
+                blankNodes = true;
+            } else if (!blankNodes) {
+                lines.add(toLine(subject, triple.getPredicate(), object, recordName));
+            }
+            super.triple(triple);
+        }
+
+        /**
+         * Add the collected triples to the manifest, after the record was parsed successfully
+         * @throws IOException when there's a problem writing the triples
+         */
+        public void commit() throws IOException {
+            if (blankNodes) {
+                notComparable("record " + recordName + " contains blank nodes");
+            } else if (recordName.indexOf('\t') >= 0 || recordName.indexOf('\n') >= 0) {
+                notComparable("record name " + recordName + " contains a tab or newline");
+            } else {
+                addLines(lines);
+            }
+        }
+    }
+
+    /**
+     * Add a triple that's not part of any record, but loaded with the dataset (i.e. the modification timestamp)
+     * @param subject the subject of the triple
+     * @param predicate the predicate of the triple
+     * @param object the object of the triple
+     * @throws IOException when there's a problem writing the triple
+     */
+    public void addDatasetTriple(Node subject, Node predicate, Node object) throws IOException {
+        addLines(List.of(toLine(subject, predicate, object, DATASET_RECORD)));
+    }
+
+    private static String toLine(Node subject, Node predicate, Node object, String recordName) {
+        return NodeFmtLib.strNodesNT(subject, predicate, object) + " .\t" + recordName;
+    }
+
+    private void addLines(List<String> lines) throws IOException {
+        if (notComparableReason != null) {
+            return;
+        }
+        synchronized (triples) {
+            for (String line : lines) {
+                triples.add(line);
+            }
+        }
+    }
+
+    private void notComparable(String reason) {
+        if (notComparableReason == null) {
+            LOG.debug("Manifest {} is not comparable: {}", triplesFile, reason);
+            notComparableReason = reason;
+        }
+    }
+
+    /**
+     * Determine which triples of the previous version should be removed from the dataset graph, after all records of
+     * the new version were checked: the triples of which all records were changed or removed. The triples of unchanged
+     * records are copied to the triples of the new version.
+     * @param removedFile (gzipped) N-Triples file to write the triples that should be removed to
+     * @return the number of triples that should be removed
+     * @throws IOException when there's a problem reading the triples of the previous version or writing the file
+     */
+    public long writeRemovedTriples(File removedFile) throws IOException {
+        long removed = 0;
+        try (BufferedReader previousLines = SortedLineWriter.openReader(previousTriplesFile);
+             BufferedWriter removedOut = SortedLineWriter.openWriter(removedFile)) {
+            // lines are sorted, so all lines of a triple are next to each other
+            String triple = null;
+            boolean keep = false;
+            String line = previousLines.readLine();
+            while (line != null) {
+                int tab = line.indexOf('\t');
+                String lineTriple = line.substring(0, tab);
+                if (!lineTriple.equals(triple)) {
+                    if (triple != null && !keep) {
+                        SortedLineWriter.writeLine(removedOut, triple);
+                        removed++;
+                    }
+                    triple = lineTriple;
+                    keep = false;
+                }
+                if (isUnchanged(line.substring(tab + 1))) {
+                    keep = true;
+                    addLines(List.of(line));
+                }
+                line = previousLines.readLine();
+            }
+            if (triple != null && !keep) {
+                SortedLineWriter.writeLine(removedOut, triple);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private boolean isUnchanged(String recordName) {
+        Long hash = hashes.get(recordName);
+        return hash != null && hash.equals(previousHashes.get(recordName));
+    }
+
+    /**
+     * @return the number of records that changed
+     */
+    public int getChangedRecords() {
+        return changedRecords.get();
+    }
+
+    /**
+     * @return the number of records of the previous version that are no longer present, only known after all records
+     * of the new version were checked
+     */
+    public int getRemovedRecords() {
+        int removed = 0;
+        for (String name : previousHashes.keySet()) {
+            if (!hashes.containsKey(name)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of records in the new version
+     */
+    public int getRecords() {
+        return hashes.size();
+    }
+
+    /**
+     * @return true if the manifest can be compared with the next version of the dataset
+     */
+    public boolean isComparable() {
+        return notComparableReason == null;
+    }
+
+    /**
+     * @return the reason why the manifest is not comparable, null if it is
+     */
+    public String getNotComparableReason() {
+        return notComparableReason;
+    }
+
+    /**
+     * Write the manifest of the new version, sorted by record name, together with the triples of its records
+     * @param file the file to write to, an existing file is replaced
+     * @param recordTriplesFile the file to move the triples to, an existing file is replaced
+     * @throws IOException when there's a problem writing the files
+     */
+    public void write(File file, File recordTriplesFile) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(hashes.size());
+            for (Map.Entry<String, Long> entry : new TreeMap<>(hashes).entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        long lines;
+        synchronized (triples) {
+            lines = triples.finish();
+        }
+        Files.move(triplesFile.toPath(), recordTriplesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LOG.debug("Wrote manifest {} with {} records and {} triples", file, hashes.size(), lines);
+    }
+
+    /**
+     * Remove the temporary files of the triples of the new version
+     */
+    @Override
+    public void close() throws IOException {
+        triples.close();
+        Files.deleteIfExists(triplesFile.toPath());
+    }
+}
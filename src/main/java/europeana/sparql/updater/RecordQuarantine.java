@@ -0,0 +1,92 @@
+package europeana.sparql.updater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects records of a dataset that are not valid, so they can be left out when loading the dataset instead of
+ * failing the whole dataset. Invalid records are written to a quarantine file (one per dataset) together with the
+ * reason why they were rejected, so they can be inspected and reported to the data provider.
+ */
+public class RecordQuarantine implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(RecordQuarantine.class);
+
+    private static final String FILE_EXTENSION = "_quarantine.ttl";
+
+    private final String datasetId;
+    private final File quarantineFile;
+    private final List<String> recordNames = new ArrayList<>();
+    private OutputStream out;
+
+    /**
+     * Initialize a new quarantine for a dataset. A quarantine file of a previous run of the same dataset is removed.
+     * @param quarantineFolder the folder where the quarantine file is stored
+     * @param datasetId the id of the dataset
+     * @throws IOException when there's a problem removing the previous quarantine file
+     */
+    public RecordQuarantine(File quarantineFolder, String datasetId) throws IOException {
+        this.datasetId = datasetId;
+        this.quarantineFile = new File(quarantineFolder, datasetId + FILE_EXTENSION);
+        Files.deleteIfExists(quarantineFile.toPath());
+    }
+
+    /**
+     * Add an invalid record to the quarantine. This method may be called from multiple threads.
+     * @param recordName the name of the record (zip file entry)
+     * @param reason why the record is not valid
+     * @param data the contents of the record
+     * @throws IOException when there's a problem writing to the quarantine file
+     */
+    public synchronized void add(String recordName, String reason, byte[] data) throws IOException {
+        LOG.warn("Record {} of dataset {} is not valid and is skipped: {}", recordName, datasetId, reason);
+        if (out == null) {
+            out = new BufferedOutputStream(new FileOutputStream(quarantineFile));
+        }
+        String header = "# Record " + recordName + ": " + (reason == null ? "" : reason.replace('\n', ' ')) + "\n";
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        out.write(data);
+        out.write("\n\n".getBytes(StandardCharsets.UTF_8));
+        recordNames.add(recordName);
+    }
+
+    /**
+     * @return the number of records in quarantine
+     */
+    public synchronized int getCount() {
+        return recordNames.size();
+    }
+
+    /**
+     * @return the names of the records in quarantine
+     */
+    public synchronized List<String> getRecordNames() {
+        return Collections.unmodifiableList(new ArrayList<>(recordNames));
+    }
+
+    public File getQuarantineFile() {
+        return quarantineFile;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            LOG.info("{} records of dataset {} are in quarantine file {}", recordNames.size(), datasetId,
+                    quarantineFile);
+        }
+    }
+}
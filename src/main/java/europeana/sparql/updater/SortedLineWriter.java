@@ -0,0 +1,135 @@
+package europeana.sparql.updater;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes lines to a (gzipped) file in sorted order, without duplicates. Lines are sorted in memory in batches that are
+ * written to temporary files (runs), which are merged when all lines were added. Used for the dumps of loaded datasets
+ * (see TripleDump and RecordManifest).
+ */
+final class SortedLineWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINES_IN_MEMORY = 500_000;
+
+    private final File file;
+    private final int maxLinesInMemory;
+    private final List<String> lines = new ArrayList<>();
+    private final List<File> runs = new ArrayList<>();
+
+    SortedLineWriter(File file) {
+        this(file, MAX_LINES_IN_MEMORY);
+    }
+
+    /**
+     * @param file the file to write to
+     * @param maxLinesInMemory the number of lines that are sorted in memory before they are written to a run
+     */
+    SortedLineWriter(File file, int maxLinesInMemory) {
+        this.file = file;
+        this.maxLinesInMemory = maxLinesInMemory;
+    }
+
+    void add(String line) throws IOException {
+        lines.add(line);
+        if (lines.size() >= maxLinesInMemory) {
+            writeRun();
+        }
+    }
+
+    private void writeRun() throws IOException {
+        Collections.sort(lines);
+        File run = new File(file.getParentFile(), file.getName() + ".run" + runs.size());
+        runs.add(run);
+        try (BufferedWriter out = openWriter(run)) {
+            for (String line : lines) {
+                writeLine(out, line);
+            }
+        }
+        lines.clear();
+    }
+
+    private record RunReader(BufferedReader reader, String line) {
+    }
+
+    /**
+     * Merge all runs into the output file
+     * @return the number of lines written
+     */
+    long finish() throws IOException {
+        writeRun();
+        long count = 0;
+        List<BufferedReader> readers = new ArrayList<>(runs.size());
+        try (BufferedWriter out = openWriter(file)) {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>((r1, r2) -> r1.line().compareTo(r2.line()));
+            for (File run : runs) {
+                BufferedReader reader = openReader(run);
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) {
+                    queue.add(new RunReader(reader, line));
+                }
+            }
+            String lastLine = null;
+            RunReader next = queue.poll();
+            while (next != null) {
+                if (!next.line().equals(lastLine)) {
+                    writeLine(out, next.line());
+                    lastLine = next.line();
+                    count++;
+                }
+                String line = next.reader().readLine();
+                if (line != null) {
+                    queue.add(new RunReader(next.reader(), line));
+                }
+                next = queue.poll();
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove the temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        for (File run : runs) {
+            Files.deleteIfExists(run.toPath());
+        }
+    }
+
+    static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    static BufferedWriter openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    static void writeLine(BufferedWriter out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+    }
+}
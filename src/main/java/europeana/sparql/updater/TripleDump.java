@@ -0,0 +1,203 @@
+package europeana.sparql.updater;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A sorted (gzipped) N-Triples dump of a dataset, one triple per line without duplicates. By keeping the dump of the
+ * version of a dataset that is loaded in Virtuoso, the triples that were removed and added in a new version can be
+ * determined by comparing both dumps line by line, without querying Virtuoso.
+ * <p>
+ * Blank node labels are generated by the parser, so they differ every time a dataset is parsed. Dumps of datasets with
+ * blank nodes (or with invalid records) are therefore not comparable.
+ */
+public class TripleDump {
+
+    private static final Logger LOG = LogManager.getLogger(TripleDump.class);
+
+    private static final String DATASET_IRI_PREFIX = "http://data.europeana.eu/dataset/";
+    private static final String MODIFIED_IRI = "http://purl.org/dc/terms/modified";
+
+    private final File file;
+    private long triples;
+    private String notComparableReason;
+
+    /**
+     * The number of triples that were removed and added between two versions of a dataset
+     * @param removed number of triples only present in the previous version
+     * @param added number of triples only present in the new version
+     */
+    public record Delta(long removed, long added) {
+    }
+
+    private TripleDump(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Parse all records in a downloaded zip file and write the sorted triples to a dump file. The triple with the
+     * modification timestamp of the dataset is included, just like when the dataset is loaded. Creating the dump stops
+     * as soon as it's clear the dump won't be comparable, in which case no dump file is kept.
+     * @param datasetId the id of the dataset
+     * @param dsZipFile the downloaded zip file
+     * @param timestampFtp the last modified date of the Zip file on the FTP server
+     * @param dumpFile the file to write to
+     * @return the created dump
+     * @throws IOException when there's a problem reading the zip file or writing the dump
+     */
+    public static TripleDump create(String datasetId, File dsZipFile, Instant timestampFtp, File dumpFile)
+            throws IOException {
+        LOG.debug("Creating triple dump {} of dataset {}...", dumpFile, datasetId);
+        TripleDump dump = new TripleDump(dumpFile);
+        try (ZipFile zipFile = new ZipFile(dsZipFile);
+             SortedLineWriter writer = new SortedLineWriter(dumpFile)) {
+            TripleCollector collector = new TripleCollector(writer);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements() && dump.notComparableReason == null) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    RDFParser.source(in)
+                            .lang(Lang.TURTLE)
+                            .base(DATASET_IRI_PREFIX + datasetId)
+                            .parse(collector);
+                } catch (RiotException e) {
+                    LOG.debug("Record {} of dataset {} is not valid", entry.getName(), datasetId, e);
+                    dump.notComparableReason = "record " + entry.getName() + " is not valid";
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                if (collector.blankNodes) {
+                    dump.notComparableReason = "record " + entry.getName() + " contains blank nodes";
+                }
+            }
+            if (dump.notComparableReason == null) {
+                writer.add(NodeFmtLib.strNodesNT(NodeFactory.createURI(DATASET_IRI_PREFIX + datasetId),
+                        NodeFactory.createURI(MODIFIED_IRI),
+                        NodeFactory.createLiteral(timestampFtp.toString(), XSDDatatype.XSDdateTime)) + " .");
+                dump.triples = writer.finish();
+                LOG.debug("Triple dump {} contains {} triples", dumpFile, dump.triples);
+            }
+        }
+        if (dump.notComparableReason != null) {
+            Files.deleteIfExists(dumpFile.toPath());
+        }
+        return dump;
+    }
+
+    /**
+     * Compare this dump with the dump of a previous version of the dataset and write the removed and added triples to
+     * (gzipped) N-Triples files
+     * @param previousDumpFile the dump of the previous version
+     * @param removedFile file to write the triples that were removed to
+     * @param addedFile file to write the triples that were added to
+     * @return the number of removed and added triples
+     * @throws IOException when there's a problem reading the dumps or writing the files
+     */
+    public Delta compare(File previousDumpFile, File removedFile, File addedFile) throws IOException {
+        long removed = 0;
+        long added = 0;
+        try (BufferedReader previousLines = SortedLineWriter.openReader(previousDumpFile);
+             BufferedReader newLines = SortedLineWriter.openReader(file);
+             BufferedWriter removedOut = SortedLineWriter.openWriter(removedFile);
+             BufferedWriter addedOut = SortedLineWriter.openWriter(addedFile)) {
+            String previousLine = previousLines.readLine();
+            String newLine = newLines.readLine();
+            while (previousLine != null || newLine != null) {
+                int compare;
+                if (previousLine == null) {
+                    compare = 1;
+                } else if (newLine == null) {
+                    compare = -1;
+                } else {
+                    compare = previousLine.compareTo(newLine);
+                }
+                if (compare < 0) {
+                    SortedLineWriter.writeLine(removedOut, previousLine);
+                    removed++;
+                    previousLine = previousLines.readLine();
+                } else if (compare > 0) {
+                    SortedLineWriter.writeLine(addedOut, newLine);
+                    added++;
+                    newLine = newLines.readLine();
+                } else {
+                    previousLine = previousLines.readLine();
+                    newLine = newLines.readLine();
+                }
+            }
+        }
+        return new Delta(removed, added);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of (distinct) triples in the dump
+     */
+    public long getTriples() {
+        return triples;
+    }
+
+    /**
+     * @return true if the dump can be compared with other dumps of the same dataset
+     */
+    public boolean isComparable() {
+        return notComparableReason == null;
+    }
+
+    /**
+     * @return the reason why the dump is not comparable, null if it is
+     */
+    public String getNotComparableReason() {
+        return notComparableReason;
+    }
+
+    /**
+     * Converts parsed triples to N-Triples lines. Prefixes and the base are resolved by the parser.
+     */
+    private static final class TripleCollector extends StreamRDFBase {
+        private final SortedLineWriter writer;
+        private boolean blankNodes;
+
+        private TripleCollector(SortedLineWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            Node subject = triple.getSubject();
+            Node object = triple.getObject();
+            if (subject.isBlank() || object.isBlank()) {
+                blankNodes = true;
+                return;
+            }
+            try {
+                writer.add(NodeFmtLib.strNodesNT(subject, triple.getPredicate(), object) + " .");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
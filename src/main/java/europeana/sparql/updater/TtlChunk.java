@@ -0,0 +1,54 @@
+package europeana.sparql.updater;
+
+import java.io.File;
+
+/**
+ * Information about a generated TTL file containing (part of) the records of a dataset
+ */
+public class TtlChunk {
+
+    private final File file;
+    private final int records;
+    private final long bytes;
+    private final long triples;
+
+    /**
+     * Create a new TTL chunk
+     * @param file the generated file
+     * @param records the number of records in the file
+     * @param bytes the uncompressed size of the file
+     * @param triples the number of triples in the file (-1 if unknown)
+     */
+    public TtlChunk(File file, int records, long bytes, long triples) {
+        this.file = file;
+        this.records = records;
+        this.bytes = bytes;
+        this.triples = triples;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of triples in the file, -1 if unknown (records that are copied without parsing them are not
+     * counted)
+     */
+    public long getTriples() {
+        return triples;
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + " (" + records + " records, " + bytes + " bytes"
+                + (triples < 0 ? "" : ", " + triples + " triples") + ")";
+    }
+}
@@ -0,0 +1,38 @@
+package europeana.sparql.updater;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Generates the (gzipped) files with the records of a dataset that are loaded into Virtuoso, one file (chunk) at a time
+ */
+public interface TtlFileCreator extends Closeable {
+
+    /**
+     * Checks if there are records to create another file. Should be invoked before invoking createNextTtlFile()
+     * @return true if there will be another file, false otherwise
+     * @throws IOException when there's a problem reading the records
+     */
+    boolean hasNextTtlFile() throws IOException;
+
+    /**
+     * Creates the next file at the default location
+     * @return information about the created file
+     * @throws IOException when there's a problem reading the records or writing the file
+     */
+    TtlChunk createNextTtlFile() throws IOException;
+
+    /**
+     * Creates the next file at the provided location
+     * @param ttlFile the file to write to
+     * @return information about the created file
+     * @throws IOException when there's a problem reading the records or writing the file
+     */
+    TtlChunk createNextTtlFile(File ttlFile) throws IOException;
+
+    /**
+     * @return the format of the generated files
+     */
+    RdfOutputFormat getOutputFormat();
+}
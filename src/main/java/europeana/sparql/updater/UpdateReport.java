@@ -4,9 +4,11 @@ import europeana.sparql.updater.util.ProgressLogger;
 import europeana.sparql.updater.util.ServerInfoUtils;
 
 import java.io.File;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +32,8 @@ public class UpdateReport extends ProgressLogger {
     List<Dataset> removed = new ArrayList<>();
     List<Dataset> unchanged = new ArrayList<>();
     Map<Dataset, String> failed = new HashMap<>();
+    Map<Dataset, List<String>> quarantined = new LinkedHashMap<>();
+    List<Duration> checkpoints = new ArrayList<>();
     private File storageLocation;
     Exception updateStartError;
 
@@ -111,6 +115,23 @@ public class UpdateReport extends ProgressLogger {
         logItemAdded();
     }
 
+    /**
+     * Add records of a dataset that were not valid and therefore not loaded
+     * @param ds dataset that contained invalid records
+     * @param recordNames the names of the invalid records
+     */
+    public void addQuarantined(Dataset ds, List<String> recordNames) {
+        quarantined.put(ds, recordNames);
+    }
+
+    /**
+     * Add a checkpoint that was created during the update
+     * @param duration how long creating the checkpoint took
+     */
+    public void addCheckpoint(Duration duration) {
+        checkpoints.add(duration);
+    }
+
     public List<Dataset> getCreated() {
         return created;
     }
@@ -135,6 +156,28 @@ public class UpdateReport extends ProgressLogger {
         return failed;
     }
 
+    public Map<Dataset, List<String>> getQuarantined() {
+        return quarantined;
+    }
+
+    /**
+     * @return the durations of all checkpoints created during the update
+     */
+    public List<Duration> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return the total number of records that were not valid and therefore not loaded
+     */
+    public int getQuarantinedRecordCount() {
+        int count = 0;
+        for (List<String> records : quarantined.values()) {
+            count += records.size();
+        }
+        return count;
+    }
+
     /**
      * Generate a short text describing the update
      * @return string describing the update process
@@ -182,6 +225,37 @@ public class UpdateReport extends ProgressLogger {
             }
         }
 
+        if (!quarantined.isEmpty()) {
+            s.append("\n").append(getQuarantinedRecordCount()).append(" invalid records in ").append(quarantined.size())
+                    .append(" datasets were not loaded:\n");
+            int counter = 0;
+            for (Map.Entry<Dataset, List<String>> entry : quarantined.entrySet()) {
+                if (counter > 10) {
+                    s.append("...(listing only first 10 datasets with invalid records)\n");
+                    break;
+                }
+                List<String> records = entry.getValue();
+                s.append("  ").append(entry.getKey()).append(": ").append(records.size()).append(" records (")
+                        .append(String.join(", ", records.subList(0, Math.min(3, records.size()))))
+                        .append(records.size() > 3 ? ", ...)" : ")").append("\n");
+                counter++;
+            }
+        }
+
+        if (!checkpoints.isEmpty()) {
+            Duration total = Duration.ZERO;
+            Duration longest = Duration.ZERO;
+            for (Duration duration : checkpoints) {
+                total = total.plus(duration);
+                if (duration.compareTo(longest) > 0) {
+                    longest = duration;
+                }
+            }
+            s.append("\n").append(checkpoints.size()).append(" checkpoints took ")
+                    .append(ProgressLogger.getDurationText(total.toMillis())).append(" (longest ")
+                    .append(ProgressLogger.getDurationText(longest.toMillis())).append(")\n");
+        }
+
         // report on disk usage
         if (storageLocation != null) {
             s.append(ServerInfoUtils.getDiskUsage(storageLocation)).append("\n");
@@ -3,7 +3,9 @@ package europeana.sparql.updater;
 import europeana.sparql.updater.exception.UpdaterException;
 import europeana.sparql.updater.util.ServerInfoUtils;
 import europeana.sparql.updater.virtuoso.EuropeanaSparqlClient;
+import europeana.sparql.updater.virtuoso.GraphManager;
 import europeana.sparql.updater.virtuoso.VirtuosoGraphManagerCl;
+import europeana.sparql.updater.virtuoso.VirtuosoGraphManagerJdbc;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.apache.commons.lang3.StringUtils;
@@ -15,6 +17,8 @@ import org.springframework.scheduling.support.CronTrigger;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -26,6 +30,9 @@ import java.util.TimeZone;
 public class UpdateScheduler {
 
     private static final Logger LOG = LogManager.getLogger(UpdateScheduler.class);
+    private static final long BYTES_PER_MB = 1024L * 1024;
+    private static final long BYTES_PER_GB = 1024L * BYTES_PER_MB;
+    private static final long MIN_CHUNK_BYTES = BYTES_PER_MB;
 
     private final UpdaterSettings settings;
     private ThreadPoolTaskScheduler taskScheduler;
@@ -71,14 +78,24 @@ public class UpdateScheduler {
 
         public void run()  {
             LOG.info("Starting update...");
-            synchronized (this) {
+            synchronized (DoUpdate.class) {
                 if (updateInProgress) {
                     LOG.error("There's already an update in progress! Aborting...");
                     return;
                 }
                 updateInProgress = true;
             }
+            try {
+                update();
+            } finally {
+                // also when the update fails unexpectedly, otherwise no update would ever run again
+                synchronized (DoUpdate.class) {
+                    updateInProgress = false;
+                }
+            }
+        }
 
+        private void update() {
             File isqlCommand = new File(settings.getVirtuosoIsql());
             File ttlFolder = new File(settings.getTtlFolder());
             File sqlFolder = new File(settings.getSqlFolder());
@@ -93,28 +110,66 @@ public class UpdateScheduler {
                 }
             }
 
-            VirtuosoGraphManagerCl graphManager = new VirtuosoGraphManagerCl(isqlCommand, settings.getVirtuosoPort(),
-                    settings.getVirtuosoUser(),
-                    settings.getVirtuosoPassword(),
-                    ttlFolder,
-                    sqlFolder);
-            EuropeanaDatasetFtpServer ftpServer = new EuropeanaDatasetFtpServer(settings.getFtpHostName(), settings.getFtpPort(),
-                    settings.getFtpPath(), settings.getFtpUsername(), settings.getFtpPassword(), settings.getFtpChecksum());
+            GraphManager graphManager;
+            if (UpdaterSettings.VIRTUOSO_CLIENT_JDBC.equalsIgnoreCase(settings.getVirtuosoClient())) {
+                graphManager = new VirtuosoGraphManagerJdbc(settings.getVirtuosoPort(), settings.getVirtuosoUser(),
+                        settings.getVirtuosoPassword(), ttlFolder, settings.getVirtuosoJdbcConnections(),
+                        new File(settings.getVirtuosoJdbcDriver()));
+            } else {
+                VirtuosoGraphManagerCl isqlManager = new VirtuosoGraphManagerCl(isqlCommand,
+                        settings.getVirtuosoPort(),
+                        settings.getVirtuosoUser(),
+                        settings.getVirtuosoPassword(),
+                        ttlFolder,
+                        sqlFolder);
+                if (settings.getVirtuosoCommandTimeout() > 0) {
+                    isqlManager.setCommandTimeout(Duration.ofMinutes(settings.getVirtuosoCommandTimeout()));
+                }
+                isqlManager.setRemoveBatchSize(settings.getVirtuosoRemoveBatchSize());
+                graphManager = isqlManager;
+            }
+            DatasetSource datasetSource = createDatasetSource();
             EuropeanaSparqlClient sparqlEndpoint = new EuropeanaSparqlClient(settings.getVirtuosoEndpoint());
             Integer maxWaitForVirtuoso = settings.getUpdateMaxWaitForVirtuoso();
 
             String nodeId = ServerInfoUtils.getServerId();
             UpdateReport report;
             try {
-                report = new UpdaterService(nodeId, ftpServer, sparqlEndpoint, graphManager, ttlFolder,
-                        maxWaitForVirtuoso, settings.getMaxRecordsPerImport()).runUpdate(settings.getDatasetsList());
+                UpdaterService updaterService = new UpdaterService(nodeId, datasetSource, sparqlEndpoint, graphManager,
+                        ttlFolder, maxWaitForVirtuoso, settings.getMaxRecordsPerImport());
+                updaterService.setStreaming(settings.getFtpStreaming());
+                updaterService.setCompression(settings.getGzipLevel(), settings.getGzipThreads());
+                updaterService.setChunkLookAhead(settings.getChunkLookAhead());
+                updaterService.setOutputFormat(RdfOutputFormat.valueOf(settings.getOutputFormat().toUpperCase(Locale.ROOT)));
+                updaterService.setConversionThreads(settings.getConversionThreads());
+                updaterService.setParallelChunks(settings.getParallelChunks());
+                updaterService.setBulkLoaders(settings.getVirtuosoBulkLoaders());
+                updaterService.setVerifyTripleCount(settings.getVirtuosoVerifyTriples());
+                updaterService.setCheckpointPolicy(new CheckpointPolicy(settings.getCheckpointDatasets(),
+                        Duration.ofMinutes(settings.getCheckpointMinutes()), settings.getCheckpointDirtyBuffers()));
+                if (!StringUtils.isBlank(settings.getQuarantineFolder())) {
+                    updaterService.setQuarantineFolder(getOrCreateFolder(settings.getQuarantineFolder()));
+                }
+                if (!StringUtils.isBlank(settings.getDeltaFolder()) && !settings.getFtpStreaming()) {
+                    updaterService.setDeltaFolder(getOrCreateFolder(settings.getDeltaFolder()));
+                    updaterService.setRecordLevelDelta(
+                            UpdaterSettings.DELTA_MODE_RECORDS.equalsIgnoreCase(settings.getDeltaMode()));
+                }
+                if (UpdaterSettings.CHUNK_POLICY_ADAPTIVE.equalsIgnoreCase(settings.getChunkPolicy())) {
+                    updaterService.setChunkPolicy(new AdaptiveChunkPolicy(settings.getChunkTargetMb() * BYTES_PER_MB,
+                            Duration.ofSeconds(settings.getChunkTargetSeconds()), MIN_CHUNK_BYTES,
+                            settings.getChunkMaxMb() * BYTES_PER_MB));
+                }
+                report = updaterService.runUpdate(settings.getDatasetsList());
             } catch (UpdaterException ue) {
                 LOG.error("Error running the update", ue);
                 report = new UpdateReport(nodeId, ue);
+            } finally {
+                datasetSource.close();
+                graphManager.close();
             }
 
             LOG.info("Finished update.");
-            updateInProgress = false;
             if (LOG.isInfoEnabled()) {
                 LOG.info(report.printSummary());
             }
@@ -125,6 +180,28 @@ public class UpdateScheduler {
                 Slack.publishUpdateReport(report, settings.getSlackWebhook());
             }
         }
+
+        private File getOrCreateFolder(String folderName) {
+            File folder = new File(folderName);
+            if (!folder.exists() && !folder.mkdirs()) {
+                throw new IllegalStateException("Unable to create folder " + folder.getAbsolutePath());
+            }
+            return folder;
+        }
+
+        private DatasetSource createDatasetSource() {
+            if (UpdaterSettings.SOURCE_TYPE_LOCAL.equalsIgnoreCase(settings.getSourceType())) {
+                return new LocalDatasetSource(new File(settings.getSourceLocalFolder()), settings.getFtpChecksum());
+            }
+            EuropeanaDatasetFtpServer ftpServer = new EuropeanaDatasetFtpServer(settings.getFtpHostName(),
+                    settings.getFtpPort(), settings.getFtpPath(), settings.getFtpUsername(), settings.getFtpPassword(),
+                    settings.getFtpChecksum(), settings.getFtpConnections());
+            if (!StringUtils.isBlank(settings.getCacheFolder())) {
+                ftpServer.setCache(new DatasetZipCache(new File(settings.getCacheFolder()),
+                        settings.getCacheMaxSizeGb() * BYTES_PER_GB));
+            }
+            return ftpServer;
+        }
     }
 
     /**
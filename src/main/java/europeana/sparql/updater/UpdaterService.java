@@ -1,12 +1,14 @@
 package europeana.sparql.updater;
 
 import europeana.sparql.updater.Dataset.State;
+import europeana.sparql.updater.exception.DownloadException;
 import europeana.sparql.updater.exception.UpdaterException;
 import europeana.sparql.updater.exception.VirtuosoCmdLineException;
 import europeana.sparql.updater.util.ServerInfoUtils;
 import europeana.sparql.updater.virtuoso.CommandResult;
 import europeana.sparql.updater.virtuoso.EuropeanaSparqlClient;
-import europeana.sparql.updater.virtuoso.VirtuosoGraphManagerCl;
+import europeana.sparql.updater.virtuoso.GraphManager;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,6 +20,9 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 /**
  * Service that runs the SPARQL endpoint update process
@@ -29,31 +34,55 @@ public class UpdaterService {
     private static final int VIRTUOSO_MAX_WAIT_TIME = 60; // seconds
     String serverId;
     EuropeanaSparqlClient sparql;
-    EuropeanaDatasetFtpServer ftpServer;
-    VirtuosoGraphManagerCl sparqlGraphManager;
+    DatasetSource datasetSource;
+    GraphManager sparqlGraphManager;
     File storageLocation;
     Integer updateMaxWaitForVirtuoso;
     Integer maxChunkSize;
+    ParallelDownloader downloader;
+    boolean streaming;
+    int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    int compressionThreads = 1;
+    ExecutorService compressionExecutor;
+    int conversionThreads = 1;
+    ExecutorService conversionExecutor;
+    int parallelChunks = 1;
+    ExecutorService chunkExecutor;
+    File quarantineFolder;
+    RecordQuarantine quarantine;
+    DeltaUpdater deltaUpdater;
+    boolean recordLevelDelta;
+    TripleDump dump;
+    RecordManifest manifest;
+    boolean deltaApplied;
+    boolean directLoad;
+    int chunkLookAhead;
+    int bulkLoaders;
+    boolean verifyTripleCount = true;
+    CheckpointPolicy checkpointPolicy = new CheckpointPolicy(0, null, 0);
+    ChunkPolicy chunkPolicy;
+    RdfOutputFormat outputFormat = RdfOutputFormat.TURTLE;
 
     /**
      * Initialize a new updater service
      * @param serverId the id of the server on which the update is done
-     * @param ftpServer the Europeana FTP server that hosts the dataset sources
+     * @param datasetSource the source of the dataset zip files, e.g. the Europeana FTP server
      * @param sparql a Europeana sparql client for doing sparql queries
-     * @param virtuosoGraphManangerCl the command-line utility for interacting with Virtuoso (isql)
+     * @param graphManager used to create, update and remove graphs in Virtuoso (via isql or JDBC)
      * @param storageLocation optional, any file or directory located on the drive on which to report disk usage
      * @param updateMaxWaitForVirtuoso maximum time in seconds how long the update should wait for Virtuoso to be ready (can be null)
      * @param maxChunkSize, maximum number of items to process in 1 go (if set to 0 then there's no limit)
      */
-    public UpdaterService(String serverId, EuropeanaDatasetFtpServer ftpServer, EuropeanaSparqlClient sparql,
-                          VirtuosoGraphManagerCl virtuosoGraphManangerCl, File storageLocation, Integer updateMaxWaitForVirtuoso, Integer maxChunkSize) {
+    public UpdaterService(String serverId, DatasetSource datasetSource, EuropeanaSparqlClient sparql,
+                          GraphManager graphManager, File storageLocation, Integer updateMaxWaitForVirtuoso, Integer maxChunkSize) {
         this.serverId = serverId;
-        this.ftpServer = ftpServer;
+        this.datasetSource = datasetSource;
         this.sparql = sparql;
-        this.sparqlGraphManager = virtuosoGraphManangerCl;
+        this.sparqlGraphManager = graphManager;
         this.storageLocation = storageLocation;
         this.updateMaxWaitForVirtuoso = updateMaxWaitForVirtuoso;
         this.maxChunkSize = maxChunkSize;
+        this.chunkPolicy = new RecordCountChunkPolicy(maxChunkSize);
     }
 
     /**
@@ -71,7 +100,7 @@ public class UpdaterService {
             LOG.info(ServerInfoUtils.getDiskUsage(storageLocation));
         }
 
-        List<Dataset> datasetsInFtp = ftpServer.listDatasets();
+        List<Dataset> datasetsInFtp = datasetSource.listDatasets();
         Map<Dataset, Dataset> datasetsInSparql = sparql.listDatasets();
 
         // When processing only particular sets, we filter out the rest
@@ -100,21 +129,142 @@ public class UpdaterService {
             }
         }
 
-        LOG.info("Found {} data sets, {} need action...", dataSetsAll.size(), nrDataSetsToUpdate);
+        List<Dataset> datasetsToDownload = dataSetsAll.stream().filter(UpdaterService::needsDownload).toList();
+        if (LOG.isInfoEnabled()) {
+            long bytesToProcess = 0;
+            int unknownSize = 0;
+            for (Dataset ds : datasetsToDownload) {
+                if (ds.getSizeFtp() >= 0) {
+                    bytesToProcess += ds.getSizeFtp();
+                } else {
+                    unknownSize++;
+                }
+            }
+            LOG.info("Found {} data sets, {} need action, {} of zip files to process{}...", dataSetsAll.size(),
+                    nrDataSetsToUpdate, ServerInfoUtils.getSizeText(bytesToProcess),
+                    (unknownSize > 0 ? " (size of " + unknownSize + " data sets unknown)" : ""));
+        }
         UpdateReport report = new UpdateReport(serverId, storageLocation, nrDataSetsToUpdate);
-        for (Dataset ds : dataSetsAll) {
-            try {
-                updateSet(report, ds);
-            } catch (UpdaterException | IOException  e) {
-                LOG.error("Failed to update data set {}", ds, e);
-                report.addFailed(ds, StringUtils.isEmpty(e.getMessage()) ? ("Exception " + e.getClass().getSimpleName())
-                        : e.getMessage());
+        if (compressionThreads > 1) {
+            compressionExecutor = Executors.newFixedThreadPool(compressionThreads);
+        }
+        if (conversionThreads > 1) {
+            conversionExecutor = Executors.newFixedThreadPool(conversionThreads);
+        }
+        if (parallelChunks > 1 && !streaming) {
+            chunkExecutor = Executors.newFixedThreadPool(parallelChunks);
+        }
+        // download data sets in the background while we process them
+        downloader = new ParallelDownloader(datasetSource, sparqlGraphManager.getTtlImportFolder(),
+                datasetSource.getMaxParallelDownloads());
+        try {
+            if (!streaming) {
+                downloader.schedule(datasetsToDownload);
+            }
+            removeLeftoverPendingFiles();
+            for (Dataset ds : dataSetsAll) {
+                try {
+                    updateSet(report, ds);
+                } catch (UpdaterException | IOException  e) {
+                    LOG.error("Failed to update data set {}", ds, e);
+                    report.addFailed(ds, StringUtils.isEmpty(e.getMessage()) ? ("Exception " + e.getClass().getSimpleName())
+                            : e.getMessage());
+                } finally {
+                    // if the dataset failed before its zip file was used, the download would keep a download slot
+                    downloader.discard(ds);
+                }
+                if (ds.getState() != State.UP_TO_DATE) {
+                    checkpointPolicy.datasetChanged();
+                    checkpointIfNeeded(report);
+                }
+            }
+            if (checkpointPolicy.hasChanges()) {
+                checkpoint(report);
+            }
+        } finally {
+            downloader.close();
+            downloader = null;
+            if (compressionExecutor != null) {
+                compressionExecutor.shutdownNow();
+                compressionExecutor = null;
+            }
+            if (conversionExecutor != null) {
+                conversionExecutor.shutdownNow();
+                conversionExecutor = null;
+            }
+            if (chunkExecutor != null) {
+                chunkExecutor.shutdownNow();
+                chunkExecutor = null;
             }
         }
         report.setEndTime(Instant.now());
         return report;
     }
 
+    private void removeLeftoverPendingFiles() {
+        if (deltaUpdater != null) {
+            try {
+                deltaUpdater.removeLeftoverPendingFiles();
+            } catch (IOException e) {
+                LOG.error("Error removing pending dumps and manifests of a previous run", e);
+            }
+        }
+    }
+
+    private void checkpointIfNeeded(UpdateReport report) {
+        long dirtyBuffers = -1;
+        if (checkpointPolicy.isDirtyBuffersCheckEnabled()) {
+            try {
+                dirtyBuffers = sparqlGraphManager.getDirtyBuffers();
+                LOG.debug("Virtuoso has {} dirty buffers", dirtyBuffers);
+            } catch (IOException e) {
+                LOG.warn("Unable to determine number of dirty buffers", e);
+            }
+        }
+        if (checkpointPolicy.isCheckpointNeeded(dirtyBuffers)) {
+            checkpoint(report);
+        }
+    }
+
+    /**
+     * Create a checkpoint and record how long it took. A failed checkpoint doesn't fail a dataset, the changes will be
+     * written by the next checkpoint
+     */
+    private void checkpoint(UpdateReport report) {
+        LOG.info("Creating checkpoint...");
+        Instant start = Instant.now();
+        boolean created = false;
+        try {
+            CommandResult res = sparqlGraphManager.checkpoint();
+            if (res.isSuccess()) {
+                Duration duration = Duration.between(start, Instant.now());
+                LOG.info("Checkpoint took {} ms", duration.toMillis());
+                report.addCheckpoint(duration);
+                checkpointPolicy.checkpointCreated();
+                created = true;
+            } else {
+                LOG.error("Error creating checkpoint: {}", res.getErrorMessage());
+            }
+        } catch (IOException e) {
+            LOG.error("Error creating checkpoint", e);
+        }
+        if (deltaUpdater != null) {
+            try {
+                if (created) {
+                    deltaUpdater.checkpointCreated();
+                } else {
+                    deltaUpdater.checkpointFailed();
+                }
+            } catch (IOException e) {
+                LOG.error("Error updating dumps and manifests after checkpoint", e);
+            }
+        }
+    }
+
+    private static boolean needsDownload(Dataset ds) {
+        return ds.getState() == State.CORRUPT || ds.getState() == State.MISSING || ds.getState() == State.OUTDATED;
+    }
+
     private void updateSet(UpdateReport report, Dataset ds) throws UpdaterException, IOException {
         LOG.debug("Processing dataset {}...", ds);
         CommandResult result;
@@ -122,7 +272,7 @@ public class UpdaterService {
             case CORRUPT -> {
                 LOG.warn("Dataset {} is corrupt and will be removed", ds.getId());
                 sparqlGraphManager.removeTmpGraph(ds.getId());
-                result = createOrUpdateDataset(ds);
+                result = createOrUpdateDataset(report, ds);
                 if (result.isSuccess()) {
                     report.addFixed(ds);
                 } else {
@@ -131,7 +281,7 @@ public class UpdaterService {
             }
             case MISSING -> {
                 LOG.info("Dataset {} is new and will be downloaded", ds.getId());
-                result = createOrUpdateDataset(ds);
+                result = createOrUpdateDataset(report, ds);
                 if (result.isSuccess()) {
                     report.addCreated(ds);
                 } else {
@@ -140,7 +290,7 @@ public class UpdaterService {
             }
             case OUTDATED -> {
                 LOG.info("Dataset {} is outdated and will be downloaded again", ds.getId());
-                result = createOrUpdateDataset(ds);
+                result = createOrUpdateDataset(report, ds);
                 if (result.isSuccess()) {
                     report.addUpdated(ds);
                 } else {
@@ -159,6 +309,9 @@ public class UpdaterService {
                 } else {
                     result = sparqlGraphManager.removeObsoleteGraph(ds.getId());
                     if (result.isSuccess()) {
+                        if (deltaUpdater != null) {
+                            deltaUpdater.removeDeltaFiles(ds.getId());
+                        }
                         report.addRemoved(ds);
                     } else {
                         report.addFailed(ds, result.getErrorMessage());
@@ -168,38 +321,73 @@ public class UpdaterService {
         }
     }
 
-    private CommandResult createOrUpdateDataset(Dataset ds) throws UpdaterException, IOException {
+    private CommandResult createOrUpdateDataset(UpdateReport report, Dataset ds) throws UpdaterException, IOException {
         Instant startTime = Instant.now();
 
         String datasetId = ds.getId();
         File outputFolder = sparqlGraphManager.getTtlImportFolder();
-        File dsZipFile = new File(outputFolder, ds.getId() + ".zip");
-        LOG.trace("Downloading zip file {}...", dsZipFile);
-        ftpServer.download(dsZipFile, datasetId);
-
-        LOG.info("Download complete, generating files...");
-        File dsTtlFile = new File(outputFolder, datasetId + ".ttl.gz");
+        File dsTtlFile = new File(outputFolder, datasetId + outputFormat.getFileExtension());
         CommandResult res = null;
-        try (ImportFileCreator ttlCreator = new ImportFileCreator(datasetId, dsZipFile, dsTtlFile, ds.getTimestampFtp(),
-                maxChunkSize)) {
-            while (ttlCreator.hasNextTtlFile() && (res == null || res.isSuccess())) {
-                ttlCreator.createNextTtlFile();
-                res = sparqlGraphManager.ingestGraph(datasetId + "_new");
+        quarantine = (quarantineFolder == null ? null : new RecordQuarantine(quarantineFolder, datasetId));
+        // a new dataset has no graph that needs to stay available while loading, so it's loaded in its final graph
+        directLoad = (ds.getState() == State.MISSING);
+        try {
+            try {
+                if (streaming) {
+                    res = ingestFromStream(ds, dsTtlFile);
+                } else {
+                    res = ingestFromZipFile(ds, dsTtlFile);
+                }
+            } finally {
+                if (quarantine != null) {
+                    quarantine.close();
+                    if (quarantine.getCount() > 0) {
+                        report.addQuarantined(ds, quarantine.getRecordNames());
+                    }
+                    quarantine = null;
+                }
             }
-        }
 
-        if (res.isSuccess()) {
-            res = sparqlGraphManager.removeObsoleteGraph(datasetId);
-            if (res.isSuccess()) {
-                res = sparqlGraphManager.renameTmpGraph(datasetId);
+            if (res.isSuccess() && directLoad) {
+                res = ingestTimestamp(ds);
+            } else if (res.isSuccess() && !deltaApplied) {
+                res = sparqlGraphManager.removeObsoleteGraph(datasetId);
+                if (res.isSuccess()) {
+                    res = sparqlGraphManager.renameTmpGraph(datasetId);
+                }
             }
-        } else {
-            LOG.error("Error creating or updating dataset {}: reason: {}", ds, res.getErrorMessage());
+            if (!res.isSuccess()) {
+                LOG.error("Error creating or updating dataset {}: reason: {}", ds, res.getErrorMessage());
+                if (directLoad) {
+                    LOG.info("Removing partially loaded dataset {}...", ds);
+                    sparqlGraphManager.removeObsoleteGraph(datasetId);
+                }
+            }
+        } finally {
+            try {
+                if (deltaUpdater != null) {
+                    if (res != null && res.isSuccess() && dump != null) {
+                        deltaUpdater.datasetLoaded(ds, dump);
+                    } else if (res != null && res.isSuccess() && manifest != null) {
+                        deltaUpdater.removeDeltaFiles(datasetId);
+                        deltaUpdater.datasetLoaded(ds, manifest);
+                    } else {
+                        // the previous dump may no longer match what's loaded
+                        deltaUpdater.removeDeltaFiles(datasetId);
+                    }
+                }
+            } finally {
+                if (manifest != null) {
+                    manifest.close();
+                }
+            }
+            dump = null;
+            manifest = null;
+            deltaApplied = false;
+            directLoad = false;
         }
-        LOG.trace("Deleting ttl.gz file {}", dsTtlFile);
-        Files.delete(dsTtlFile.toPath());
-        LOG.trace("Deleting zip file {}...", dsZipFile);
-        Files.delete(dsZipFile.toPath());
+        LOG.trace("Deleting file {}", dsTtlFile);
+        Files.deleteIfExists(dsTtlFile.toPath());
 
         if (LOG.isInfoEnabled()) {
             Instant endTime = Instant.now();
@@ -210,4 +398,319 @@ public class UpdaterService {
         return res;
     }
 
+    /**
+     * Load the triple with the modification timestamp of a dataset that was loaded directly in its final graph. This is
+     * done after all records were loaded, so if loading fails halfway (or the updater crashes) the graph has no
+     * timestamp and the dataset is considered corrupt in the next run
+     */
+    private CommandResult ingestTimestamp(Dataset ds) throws IOException {
+        File timestampFile = new File(sparqlGraphManager.getTtlImportFolder(), ds.getId() + "_modified"
+                + RdfOutputFormat.TURTLE.getFileExtension());
+        try {
+            ImportFileCreator.createTimestampFile(ds.getId(), ds.getTimestampFtp(), timestampFile);
+            return sparqlGraphManager.ingestGraph(ds.getId(), timestampFile);
+        } finally {
+            Files.deleteIfExists(timestampFile.toPath());
+        }
+    }
+
+    /**
+     * Load a dataset in a temporary graph (or directly in its final graph if it's a new dataset) using a downloaded
+     * zip file
+     */
+    private CommandResult ingestFromZipFile(Dataset ds, File dsTtlFile) throws UpdaterException, IOException {
+        LOG.trace("Waiting for download of dataset {}...", ds);
+        File dsZipFile = downloader.getZipFile(ds);
+        try {
+            if (deltaUpdater != null && recordLevelDelta) {
+                manifest = deltaUpdater.createManifest(ds);
+            } else if (deltaUpdater != null) {
+                LOG.info("Download complete, comparing with previous version...");
+                dump = deltaUpdater.createDump(ds, dsZipFile);
+                CommandResult res = deltaUpdater.applyDelta(ds, dump);
+                if (res != null && res.isSuccess()) {
+                    deltaApplied = true;
+                    return res;
+                }
+                // the dataset graph may be partially updated, but it's replaced when loading the dataset completely
+            }
+
+            LOG.info("Download complete, generating files...");
+            CommandResult res;
+            try (TtlFileCreator ttlCreator = createTtlFileCreator(ds, dsZipFile, dsTtlFile)) {
+                res = ingestChunks(ttlCreator, ds.getId(), getLoadGraphId(ds));
+            }
+            if (res.isSuccess() && manifest != null && manifest.hasPreviousVersion()) {
+                res = deltaUpdater.applyRecordDelta(ds, manifest);
+                deltaApplied = res.isSuccess();
+            }
+            return res;
+        } finally {
+            LOG.trace("Deleting zip file {}...", dsZipFile);
+            Files.delete(dsZipFile.toPath());
+        }
+    }
+
+    private TtlFileCreator createTtlFileCreator(Dataset ds, File dsZipFile, File dsTtlFile) throws IOException {
+        if (chunkExecutor != null) {
+            ParallelChunkCreator ttlCreator = new ParallelChunkCreator(ds.getId(), dsZipFile, dsTtlFile,
+                    ds.getTimestampFtp(), chunkPolicy, chunkExecutor, parallelChunks);
+            ttlCreator.setOutputFormat(outputFormat);
+            ttlCreator.setCompression(compressionLevel, compressionExecutor, compressionThreads);
+            ttlCreator.setQuarantine(quarantine);
+            ttlCreator.setManifest(manifest);
+            ttlCreator.setAddTimestamp(!directLoad);
+            return ttlCreator;
+        }
+        ImportFileCreator ttlCreator = new ImportFileCreator(ds.getId(), dsZipFile, dsTtlFile, ds.getTimestampFtp(),
+                maxChunkSize);
+        configure(ttlCreator);
+        return ttlCreator;
+    }
+
+    private void configure(ImportFileCreator ttlCreator) {
+        ttlCreator.setCompression(compressionLevel, compressionExecutor, compressionThreads);
+        ttlCreator.setChunkPolicy(chunkPolicy);
+        ttlCreator.setOutputFormat(outputFormat);
+        ttlCreator.setConversion(conversionExecutor, conversionThreads);
+        ttlCreator.setQuarantine(quarantine);
+        ttlCreator.setManifest(manifest);
+        ttlCreator.setAddTimestamp(!directLoad);
+    }
+
+    /**
+     * @return the id of the graph in which the records of a dataset are loaded
+     */
+    private String getLoadGraphId(Dataset ds) {
+        return (directLoad ? ds.getId() : ds.getId() + "_new");
+    }
+
+    /**
+     * Load a dataset in a temporary graph while reading the zip file directly from the dataset source. Chunks are loaded
+     * while the rest of the zip file is still being downloaded.
+     */
+    private CommandResult ingestFromStream(Dataset ds, File dsTtlFile) throws UpdaterException, IOException {
+        LOG.info("Streaming dataset {} and generating files...", ds);
+        try (DownloadStream zipStream = datasetSource.openStream(ds.getId());
+             ImportFileCreator ttlCreator = new ImportFileCreator(ds.getId(), zipStream, dsTtlFile,
+                     ds.getTimestampFtp(), maxChunkSize)) {
+            configure(ttlCreator);
+            CommandResult res = ingestChunks(ttlCreator, ds.getId(), getLoadGraphId(ds));
+            if (res.isSuccess()) {
+                try {
+                    zipStream.verify();
+                } catch (DownloadException e) {
+                    LOG.error("Downloaded data of dataset {} is not valid, removing loaded data...", ds, e);
+                    // when loaded directly in the final graph, the graph is removed by createOrUpdateDataset
+                    sparqlGraphManager.removeTmpGraph(ds.getId());
+                    res = CommandResult.error(e.getMessage());
+                }
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Generate and load all chunks of a dataset and (optionally) count the triples in the graph afterwards
+     * @param graphId the id of the graph to load the chunks in
+     */
+    private CommandResult ingestChunks(TtlFileCreator ttlCreator, String datasetId, String graphId)
+            throws IOException {
+        CommandResult res = (bulkLoaders > 0
+                ? bulkIngestChunks(ttlCreator, datasetId, graphId)
+                : ingestChunksOneByOne(ttlCreator, datasetId, graphId));
+        if (res.isSuccess() && verifyTripleCount) {
+            res = sparqlGraphManager.countTriples(graphId);
+            if (res.isSuccess()) {
+                LOG.info("Graph {} contains {} triples", graphId, res.getCount());
+            }
+        }
+        return res;
+    }
+
+    private CommandResult ingestChunksOneByOne(TtlFileCreator ttlCreator, String datasetId, String graphId)
+            throws IOException {
+        ChunkPipeline.ChunkIngester ingester = chunk -> ingestChunk(chunk, graphId);
+        CommandResult res = null;
+        if (chunkLookAhead > 0) {
+            ChunkPipeline pipeline = new ChunkPipeline(ttlCreator, sparqlGraphManager.getTtlImportFolder(), datasetId,
+                    chunkLookAhead);
+            res = pipeline.run(ingester);
+        } else {
+            while (ttlCreator.hasNextTtlFile() && (res == null || res.isSuccess())) {
+                res = ingester.ingest(ttlCreator.createNextTtlFile());
+            }
+        }
+        if (res == null) {
+            return CommandResult.error("No records found in dataset " + datasetId);
+        }
+        return res;
+    }
+
+    /**
+     * Generate all chunks of a dataset in a separate folder first and then load them with multiple bulk loaders running
+     * in parallel. The chunk policy is not informed about loaded chunks, all chunks are generated before loading starts
+     * and the load time of each chunk isn't known
+     */
+    private CommandResult bulkIngestChunks(TtlFileCreator ttlCreator, String datasetId, String graphId)
+            throws IOException {
+        File folder = new File(sparqlGraphManager.getTtlImportFolder(), datasetId);
+        if (folder.exists()) {
+            LOG.warn("Removing files of previous bulk load in {}...", folder);
+            FileUtils.deleteDirectory(folder);
+        }
+        Files.createDirectories(folder.toPath());
+        try {
+            int chunks = 0;
+            while (ttlCreator.hasNextTtlFile()) {
+                ttlCreator.createNextTtlFile(new File(folder, datasetId + "_" + chunks
+                        + ttlCreator.getOutputFormat().getFileExtension()));
+                chunks++;
+            }
+            if (chunks == 0) {
+                return CommandResult.error("No records found in dataset " + datasetId);
+            }
+            LOG.info("Generated {} files for dataset {}, loading them using {} loaders...", chunks, datasetId,
+                    bulkLoaders);
+            return sparqlGraphManager.bulkIngestGraph(graphId, folder, bulkLoaders);
+        } finally {
+            LOG.trace("Deleting folder {}...", folder);
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+    /**
+     * Load one chunk and report to the chunk policy how long it took. The number of triples is the one counted while
+     * generating the chunk, counting the graph after every chunk would make loading a dataset quadratic in its size
+     */
+    private CommandResult ingestChunk(TtlChunk chunk, String graphId) throws IOException {
+        Instant start = Instant.now();
+        CommandResult res = sparqlGraphManager.ingestGraph(graphId, chunk.getFile());
+        if (res.isSuccess()) {
+            chunkPolicy.chunkIngested(chunk, chunk.getTriples(), Duration.between(start, Instant.now()));
+        }
+        return res;
+    }
+
+    /**
+     * Set how generated TTL files are compressed
+     * @param level the gzip compression level (0-9, or -1 for the default level)
+     * @param threads the number of threads used for compression, if larger than 1 blocks of data are compressed in
+     *                parallel
+     */
+    public void setCompression(int level, int threads) {
+        this.compressionLevel = level;
+        this.compressionThreads = threads;
+    }
+
+    /**
+     * Set how many threads are used to convert records (removing prefixes or converting to N-Triples)
+     * @param threads the number of threads, if larger than 1 records are converted in parallel. If 0 or less then the
+     *                number of available processors is used
+     */
+    public void setConversionThreads(int threads) {
+        this.conversionThreads = (threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads);
+    }
+
+    /**
+     * Set how many TTL files (chunks) of a dataset are created at the same time. This only applies when zip files are
+     * downloaded (not streamed), because entries of the zip file are read in random order
+     * @param parallelChunks the number of chunks to create at the same time, if larger than 1 records are not
+     *                       converted in parallel within a chunk
+     */
+    public void setParallelChunks(int parallelChunks) {
+        this.parallelChunks = parallelChunks;
+    }
+
+    /**
+     * Enable validation of records. Records that are not valid are left out and written to a quarantine file in the
+     * provided folder, so the rest of the dataset can still be loaded
+     * @param quarantineFolder folder where quarantine files are stored, if null (default) records are not validated
+     */
+    public void setQuarantineFolder(File quarantineFolder) {
+        this.quarantineFolder = quarantineFolder;
+    }
+
+    /**
+     * Set whether the triples in the graph of a dataset are counted after all chunks were loaded, so that loading an
+     * empty dataset fails. Counting requires a scan of the whole graph
+     * @param verifyTripleCount true (default) to count the triples of every loaded dataset
+     */
+    public void setVerifyTripleCount(boolean verifyTripleCount) {
+        this.verifyTripleCount = verifyTripleCount;
+    }
+
+    /**
+     * Set the policy that decides how many records are loaded in one go. By default this is maxChunkSize records
+     * @param chunkPolicy the policy to use
+     */
+    public void setChunkPolicy(ChunkPolicy chunkPolicy) {
+        this.chunkPolicy = chunkPolicy;
+    }
+
+    /**
+     * Set the format of the files that are loaded in Virtuoso. By default records are loaded as Turtle
+     * @param outputFormat the format to use
+     */
+    public void setOutputFormat(RdfOutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Set how many TTL files (chunks) may be generated ahead of the chunk that is being loaded in Virtuoso
+     * @param chunkLookAhead maximum number of chunks generated ahead, if 0 then generating and loading chunks is done
+     *                       alternately
+     */
+    public void setChunkLookAhead(int chunkLookAhead) {
+        this.chunkLookAhead = chunkLookAhead;
+    }
+
+    /**
+     * Set how many Virtuoso bulk loaders (rdf_loader_run) are used to load a dataset. If larger than 0, all TTL files
+     * of a dataset are generated before loading starts and the loaders process the files in parallel, instead of
+     * loading each file when it is generated
+     * @param bulkLoaders the number of loaders to run in parallel, if 0 (default) files are loaded one at a time
+     */
+    public void setBulkLoaders(int bulkLoaders) {
+        this.bulkLoaders = bulkLoaders;
+    }
+
+    /**
+     * Set when checkpoints are created. By default only one checkpoint is created at the end of the run
+     * @param checkpointPolicy the policy to use
+     */
+    public void setCheckpointPolicy(CheckpointPolicy checkpointPolicy) {
+        this.checkpointPolicy = checkpointPolicy;
+    }
+
+    /**
+     * Enable incremental updates of outdated datasets. A sorted dump of the triples of every loaded dataset is kept,
+     * so only the triples that changed are removed and added when a new version is published. Datasets with blank
+     * nodes or invalid records, and datasets with too many changes, are still loaded completely. This only applies
+     * when zip files are downloaded (not streamed)
+     * @param dumpFolder folder where the dumps are kept, if null (default) datasets are always loaded completely
+     */
+    public void setDeltaFolder(File dumpFolder) {
+        this.deltaUpdater = (dumpFolder == null ? null : new DeltaUpdater(dumpFolder, sparqlGraphManager));
+    }
+
+    /**
+     * Set whether incremental updates compare datasets per record instead of per triple (default). Per record only
+     * the records that were added or changed are loaded, and the triples that only occurred in changed or removed
+     * records are removed (see RecordManifest). The next version of a dataset with blank nodes is loaded completely
+     * @param recordLevelDelta true to compare datasets per record
+     */
+    public void setRecordLevelDelta(boolean recordLevelDelta) {
+        this.recordLevelDelta = recordLevelDelta;
+    }
+
+    /**
+     * Set whether dataset zip files are streamed directly from the dataset source (true) or downloaded to disk first
+     * (false, default)
+     * @param streaming true to enable streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
 }
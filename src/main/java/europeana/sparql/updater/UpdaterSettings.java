@@ -1,5 +1,6 @@
 package europeana.sparql.updater;
 
+import europeana.sparql.updater.virtuoso.VirtuosoGraphManagerJdbc;
 import jakarta.annotation.PostConstruct;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -7,8 +8,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Container class for all settings that we load from properties file and optionally override from a user.properties file
@@ -20,6 +23,17 @@ public class UpdaterSettings {
 
     private static final Logger LOG = LogManager.getLogger(UpdaterSettings.class);
 
+    public static final String SOURCE_TYPE_FTP = "ftp";
+    public static final String SOURCE_TYPE_LOCAL = "local";
+    public static final String CHUNK_POLICY_ADAPTIVE = "adaptive";
+    public static final String VIRTUOSO_CLIENT_JDBC = "jdbc";
+    public static final String DELTA_MODE_RECORDS = "records";
+
+    @Value("${source.type:" + SOURCE_TYPE_FTP + "}")
+    private String sourceType;
+    @Value("${source.local.folder:}")
+    private String sourceLocalFolder;
+
     @Value("${ftp.hostname}")
     private String ftpHostName;
     @Value("${ftp.port}")
@@ -32,6 +46,15 @@ public class UpdaterSettings {
     private String ftpPassword;
     @Value("${ftp.checksum:false}")
     private Boolean ftpChecksum;
+    @Value("${ftp.connections:1}")
+    private Integer ftpConnections;
+    @Value("${ftp.streaming:false}")
+    private Boolean ftpStreaming;
+
+    @Value("${cache.folder:}")
+    private String cacheFolder;
+    @Value("${cache.maxSizeGb:0}")
+    private Integer cacheMaxSizeGb;
 
     @Value("${update.onstartup:false}")
     private Boolean doUpdateOnStartup;
@@ -48,6 +71,32 @@ public class UpdaterSettings {
     private String ttlFolder;
     @Value("${ttl.maxRecordsPerImport}")
     private Integer maxRecordsPerImport;
+    @Value("${ttl.format:turtle}")
+    private String outputFormat;
+    @Value("${ttl.convert.threads:1}")
+    private Integer conversionThreads;
+    @Value("${ttl.parallel.chunks:1}")
+    private Integer parallelChunks;
+    @Value("${ttl.quarantine.folder:}")
+    private String quarantineFolder;
+    @Value("${ttl.delta.folder:}")
+    private String deltaFolder;
+    @Value("${ttl.delta.mode:triples}")
+    private String deltaMode;
+    @Value("${ttl.chunk.policy:records}")
+    private String chunkPolicy;
+    @Value("${ttl.chunk.targetMb:64}")
+    private Integer chunkTargetMb;
+    @Value("${ttl.chunk.maxMb:512}")
+    private Integer chunkMaxMb;
+    @Value("${ttl.chunk.targetSeconds:60}")
+    private Integer chunkTargetSeconds;
+    @Value("${ttl.pipeline.lookahead:0}")
+    private Integer chunkLookAhead;
+    @Value("${ttl.gzip.level:-1}")
+    private Integer gzipLevel;
+    @Value("${ttl.gzip.threads:1}")
+    private Integer gzipThreads;
     @Value("${sql.folder}")
     private String sqlFolder;
 
@@ -61,6 +110,26 @@ public class UpdaterSettings {
     private String virtuosoPassword;
     @Value("${virtuoso.isql.file}")
     private String virtuosoIsql;
+    @Value("${virtuoso.client:isql}")
+    private String virtuosoClient;
+    @Value("${virtuoso.jdbc.connections:2}")
+    private Integer virtuosoJdbcConnections;
+    @Value("${virtuoso.jdbc.driver:/opt/virtuoso-opensource/lib/jdbc-4.3/virtjdbc4_3.jar}")
+    private String virtuosoJdbcDriver;
+    @Value("${virtuoso.command.timeout:0}")
+    private Integer virtuosoCommandTimeout;
+    @Value("${virtuoso.remove.batchSize:0}")
+    private Integer virtuosoRemoveBatchSize;
+    @Value("${virtuoso.verify.triples:true}")
+    private Boolean virtuosoVerifyTriples;
+    @Value("${virtuoso.bulk.loaders:0}")
+    private Integer virtuosoBulkLoaders;
+    @Value("${virtuoso.checkpoint.datasets:1}")
+    private Integer checkpointDatasets;
+    @Value("${virtuoso.checkpoint.minutes:0}")
+    private Integer checkpointMinutes;
+    @Value("${virtuoso.checkpoint.dirtyBuffers:0}")
+    private Long checkpointDirtyBuffers;
 
     @Value("${slack.webhook}")
     private String slackWebhook;
@@ -68,8 +137,37 @@ public class UpdaterSettings {
     @PostConstruct
     private void logImportantSettings() {
         LOG.info("Configuration:");
+        if (SOURCE_TYPE_LOCAL.equalsIgnoreCase(sourceType)) {
+            LOG.info("  Dataset source = local folder {}", sourceLocalFolder);
+        } else {
+            LOG.info("  Dataset source = FTP server");
+        }
         LOG.info("  FTP server = {}:{}{}", ftpHostName, ftpPort, ftpPath);
+        LOG.info("  FTP connections = {}", ftpConnections);
+        LOG.info("  FTP streaming = {}", ftpStreaming);
+        if (cacheFolder == null || cacheFolder.isBlank()) {
+            LOG.info("  Zip file cache disabled");
+        } else {
+            LOG.info("  Zip file cache = {} (max {} GB)", cacheFolder, cacheMaxSizeGb);
+        }
         LOG.info("  Virtuoso endpoint = {}:{}", virtuosoEndpoint, virtuosoPort);
+        if (VIRTUOSO_CLIENT_JDBC.equalsIgnoreCase(virtuosoClient)) {
+            LOG.info("  Virtuoso client = JDBC ({} connections)", virtuosoJdbcConnections);
+        } else {
+            LOG.info("  Virtuoso client = isql");
+            if (virtuosoCommandTimeout > 0) {
+                LOG.info("  Virtuoso command timeout = {} minutes", virtuosoCommandTimeout);
+            }
+            if (virtuosoRemoveBatchSize > 0) {
+                LOG.info("  Virtuoso graphs removed in batches of {} subjects", virtuosoRemoveBatchSize);
+            }
+        }
+        if (virtuosoBulkLoaders > 0) {
+            LOG.info("  Virtuoso bulk loaders = {}", virtuosoBulkLoaders);
+        }
+        LOG.info("  Count triples after loading = {}", virtuosoVerifyTriples);
+        LOG.info("  Checkpoint after datasets = {}, minutes = {}, dirty buffers = {}", checkpointDatasets,
+                checkpointMinutes, checkpointDirtyBuffers);
         if (updateDatasets == null || updateDatasets.isBlank()) {
             LOG.info("  Data sets: ALL");
         } else {
@@ -81,7 +179,28 @@ public class UpdaterSettings {
             LOG.info("  Data sets: {}", datasetsList);
         }
         LOG.info("  Update on startup = {}", doUpdateOnStartup);
-        LOG.info("  Max records per batch = {}", maxRecordsPerImport);
+        if (CHUNK_POLICY_ADAPTIVE.equalsIgnoreCase(chunkPolicy)) {
+            LOG.info("  Adaptive batch size, initial {} MB (max {} MB), target load time {} seconds", chunkTargetMb,
+                    chunkMaxMb, chunkTargetSeconds);
+        } else {
+            LOG.info("  Max records per batch = {}", maxRecordsPerImport);
+        }
+        LOG.info("  Output format = {}, conversion threads = {}", outputFormat, conversionThreads);
+        if (quarantineFolder == null || quarantineFolder.isBlank()) {
+            LOG.info("  Record validation disabled");
+        } else {
+            LOG.info("  Record validation enabled, quarantine folder = {}", quarantineFolder);
+        }
+        if (deltaFolder == null || deltaFolder.isBlank()) {
+            LOG.info("  Incremental updates disabled");
+        } else if (Boolean.TRUE.equals(ftpStreaming)) {
+            LOG.warn("  Incremental updates disabled, not supported when streaming");
+        } else {
+            LOG.info("  Incremental updates per {} enabled, dump folder = {}",
+                    (DELTA_MODE_RECORDS.equalsIgnoreCase(deltaMode) ? "record" : "triple"), deltaFolder);
+        }
+        LOG.info("  Chunks generated ahead = {}, in parallel = {}", chunkLookAhead, parallelChunks);
+        LOG.info("  Gzip compression level = {}, threads = {}", gzipLevel, gzipThreads);
         if (slackWebhook == null || slackWebhook.isBlank()) {
             LOG.info("  No reporting to Slack configured");
         } else {
@@ -93,6 +212,48 @@ public class UpdaterSettings {
        } else {
             LOG.warn("Configured password does not match value of DBA_PASSWORD environment variable!");
         }
+        validateSettings();
+    }
+
+    /**
+     * Check settings that would otherwise only fail when an update runs, so a wrong configuration is reported at
+     * startup. Folders that don't exist yet are created.
+     */
+    private void validateSettings() {
+        try {
+            RdfOutputFormat.valueOf(outputFormat.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unsupported ttl.format " + outputFormat, e);
+        }
+        if (VIRTUOSO_CLIENT_JDBC.equalsIgnoreCase(virtuosoClient)) {
+            VirtuosoGraphManagerJdbc.checkDriver(new File(virtuosoJdbcDriver));
+        }
+        if (CHUNK_POLICY_ADAPTIVE.equalsIgnoreCase(chunkPolicy) && virtuosoBulkLoaders > 0) {
+            LOG.warn("Chunk sizes are not adjusted when using bulk loaders, all chunks will be {} MB", chunkTargetMb);
+        }
+        createFolder(ttlFolder);
+        createFolder(sqlFolder);
+        if (quarantineFolder != null && !quarantineFolder.isBlank()) {
+            createFolder(quarantineFolder);
+        }
+        if (deltaFolder != null && !deltaFolder.isBlank()) {
+            createFolder(deltaFolder);
+        }
+    }
+
+    private static void createFolder(String folderName) {
+        File folder = new File(folderName);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IllegalStateException("Unable to create folder " + folder.getAbsolutePath());
+        }
+    }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public String getSourceLocalFolder() {
+        return sourceLocalFolder;
     }
 
     public String getFtpHostName() {
@@ -119,6 +280,22 @@ public class UpdaterSettings {
         return ftpChecksum;
     }
 
+    public Integer getFtpConnections() {
+        return ftpConnections;
+    }
+
+    public Boolean getFtpStreaming() {
+        return ftpStreaming;
+    }
+
+    public String getCacheFolder() {
+        return cacheFolder;
+    }
+
+    public Integer getCacheMaxSizeGb() {
+        return cacheMaxSizeGb;
+    }
+
     /**
      *
      * @return true if the updater should run an update directly after startup, otherwise false
@@ -170,6 +347,46 @@ public class UpdaterSettings {
         return virtuosoPassword;
     }
 
+    public String getVirtuosoClient() {
+        return virtuosoClient;
+    }
+
+    public Integer getVirtuosoJdbcConnections() {
+        return virtuosoJdbcConnections;
+    }
+
+    public String getVirtuosoJdbcDriver() {
+        return virtuosoJdbcDriver;
+    }
+
+    public Integer getVirtuosoCommandTimeout() {
+        return virtuosoCommandTimeout;
+    }
+
+    public Integer getVirtuosoRemoveBatchSize() {
+        return virtuosoRemoveBatchSize;
+    }
+
+    public Boolean getVirtuosoVerifyTriples() {
+        return virtuosoVerifyTriples;
+    }
+
+    public Integer getVirtuosoBulkLoaders() {
+        return virtuosoBulkLoaders;
+    }
+
+    public Integer getCheckpointDatasets() {
+        return checkpointDatasets;
+    }
+
+    public Integer getCheckpointMinutes() {
+        return checkpointMinutes;
+    }
+
+    public Long getCheckpointDirtyBuffers() {
+        return checkpointDirtyBuffers;
+    }
+
     public String getSlackWebhook() {
         return slackWebhook;
     }
@@ -177,4 +394,56 @@ public class UpdaterSettings {
 	public Integer getMaxRecordsPerImport() {
 		return maxRecordsPerImport;
 	}
+
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    public Integer getConversionThreads() {
+        return conversionThreads;
+    }
+
+    public Integer getParallelChunks() {
+        return parallelChunks;
+    }
+
+    public String getQuarantineFolder() {
+        return quarantineFolder;
+    }
+
+    public String getDeltaFolder() {
+        return deltaFolder;
+    }
+
+    public String getDeltaMode() {
+        return deltaMode;
+    }
+
+    public String getChunkPolicy() {
+        return chunkPolicy;
+    }
+
+    public Integer getChunkTargetMb() {
+        return chunkTargetMb;
+    }
+
+    public Integer getChunkMaxMb() {
+        return chunkMaxMb;
+    }
+
+    public Integer getChunkTargetSeconds() {
+        return chunkTargetSeconds;
+    }
+
+    public Integer getChunkLookAhead() {
+        return chunkLookAhead;
+    }
+
+    public Integer getGzipLevel() {
+        return gzipLevel;
+    }
+
+    public Integer getGzipThreads() {
+        return gzipThreads;
+    }
 }
@@ -0,0 +1,77 @@
+package europeana.sparql.updater.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Utility class for calculating and comparing the (MD5) checksums that the Europeana FTP server publishes for each
+ * dataset zip file
+ */
+public final class ChecksumUtils {
+
+    private static final String ALGORITHM = "MD5";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ChecksumUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * @return a new MessageDigest for calculating checksums
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " algorithm is not available", e);
+        }
+    }
+
+    /**
+     * Add the contents of a (partially downloaded) file to a digest
+     * @param digest the digest to update
+     * @param file the file to read
+     * @throws IOException when there's a problem reading the file
+     */
+    public static void update(MessageDigest digest, File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read = in.read(buffer);
+            while (read != -1) {
+                digest.update(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        }
+    }
+
+    /**
+     * Finish calculating a digest and return the checksum as a lower-case hexadecimal string
+     * @param digest the digest to finish
+     * @return string containing the checksum
+     */
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Extract the checksum from the contents of a checksum file. We support both files with only the checksum and files
+     * generated by md5sum (checksum followed by file name)
+     * @param checksumFileContents the contents of a checksum file
+     * @return lower-case checksum, or null if the contents are empty
+     */
+    public static String parseChecksumFile(String checksumFileContents) {
+        if (checksumFileContents == null || checksumFileContents.isBlank()) {
+            return null;
+        }
+        return checksumFileContents.trim().split("\\s+")[0].toLowerCase(Locale.ROOT);
+    }
+}
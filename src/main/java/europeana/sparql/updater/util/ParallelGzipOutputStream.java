@@ -0,0 +1,190 @@
+package europeana.sparql.updater.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that writes data in gzip format, but compresses blocks of data in parallel using the provided executor
+ * (similar to what the pigz tool does). Each block is compressed independently (using the last 32 KB of the previous
+ * block as dictionary) and the results are concatenated into one regular gzip member, so the output can be read by any
+ * gzip reader.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 512 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] GZIP_HEADER = {
+            (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final Queue<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long uncompressedSize;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] previousBlock;
+    private int previousBlockLength;
+    private boolean closed;
+
+    /**
+     * Create a new parallel gzip output stream
+     * @param out the stream to write compressed data to
+     * @param level the compression level (0-9 or -1 for default)
+     * @param executor the executor used to compress blocks
+     * @param threads the number of threads used by the executor (used to limit the amount of pending data in memory)
+     * @throws IOException when there's a problem writing the gzip header
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, ExecutorService executor, int threads)
+            throws IOException {
+        this.out = out;
+        this.level = level;
+        this.executor = executor;
+        this.maxPendingBlocks = Math.max(1, threads) * 2;
+        out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == block.length) {
+            submitBlock(false);
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (blockLength == block.length) {
+                submitBlock(false);
+            }
+            int n = Math.min(remaining, block.length - blockLength);
+            System.arraycopy(b, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        crc.update(block, 0, blockLength);
+        uncompressedSize += blockLength;
+
+        final byte[] data = block;
+        final int dataLength = blockLength;
+        final byte[] dictionary = previousBlock;
+        final int dictionaryLength = previousBlockLength;
+        pendingBlocks.add(executor.submit(() -> compress(data, dataLength, dictionary, dictionaryLength, last)));
+
+        // blocks are never modified after submitting, so we can use it as dictionary for the next block
+        previousBlock = data;
+        previousBlockLength = dataLength;
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeNextCompressedBlock();
+        }
+    }
+
+    private byte[] compress(byte[] data, int dataLength, byte[] dictionary, int dictionaryLength, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int dictLength = Math.min(DICTIONARY_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - dictLength, dictLength);
+            }
+            deflater.setInput(data, 0, dataLength);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(dataLength / 2 + 64);
+            byte[] buffer = new byte[BLOCK_SIZE / 4];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    result.write(buffer, 0, n);
+                }
+            } else {
+                // sync flush ends the block on a byte boundary so the next block can be appended directly
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    result.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeNextCompressedBlock() throws IOException {
+        Future<byte[]> next = pendingBlocks.poll();
+        if (next == null) {
+            return;
+        }
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing data");
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing data", e.getCause());
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        writeInt((int) uncompressedSize); // gzip stores the size modulo 2^32
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    /**
+     * Flushing only writes blocks that were already submitted for compression, data in the current block is kept
+     * until the block is full or the stream is closed
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!pendingBlocks.isEmpty()) {
+                writeNextCompressedBlock();
+            }
+            writeTrailer();
+        } finally {
+            for (Future<byte[]> pending : pendingBlocks) {
+                pending.cancel(true);
+            }
+            out.close();
+        }
+    }
+}
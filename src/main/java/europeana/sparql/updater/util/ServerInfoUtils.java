@@ -59,6 +59,15 @@ public final class ServerInfoUtils {
         return s.toString();
     }
 
+    /**
+     * Convert a number of bytes to a readable text
+     * @param bytes the number of bytes
+     * @return string in the form of "<x> GB"
+     */
+    public static String getSizeText(long bytes) {
+        return round((double) bytes / BYTES_PER_GIGABYTE, 1) + " GB";
+    }
+
     private static double round (double value, int precision) {
         int scale = (int) Math.pow(10, precision);
         return (double) Math.round(value * scale) / scale;
@@ -1,11 +1,12 @@
 package europeana.sparql.updater.virtuoso;
 
 /**
- * Represents the result from executing a command in the VirtuosoGraphManagerCl
+ * Represents the result from executing a command in a GraphManager
  */
 public final class CommandResult {
     String successMessage;
     String errorMessage;
+    long count = -1;
 
     private CommandResult(String successMessage, String errorMessage) {
         super();
@@ -45,6 +46,18 @@ public final class CommandResult {
         return new CommandResult(message, null);
     }
 
+    /**
+     * Create a new command result with a success message and a count (e.g. the number of triples)
+     * @param message the success message
+     * @param count the count reported by the command
+     * @return new CommandResult object
+     */
+    public static CommandResult success(String message, long count) {
+        CommandResult result = new CommandResult(message, null);
+        result.count = count;
+        return result;
+    }
+
     public String getSuccessMessage() {
         return successMessage;
     }
@@ -52,4 +65,11 @@ public final class CommandResult {
     public String getErrorMessage() {
         return errorMessage;
     }
+
+    /**
+     * @return the count reported by the command (e.g. the number of triples), -1 if not available
+     */
+    public long getCount() {
+        return count;
+    }
 }
@@ -0,0 +1,152 @@
+package europeana.sparql.updater.virtuoso;
+
+import europeana.sparql.updater.exception.VirtuosoCmdLineException;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates, updates and removes the graphs of Europeana datasets in Virtuoso's database
+ */
+public interface GraphManager extends Closeable {
+
+    /**
+     * Time in seconds between checks in waitUntilAvailable()
+     */
+    int WAIT_BETWEEN_CHECKS = 5;
+
+    /**
+     * @return the folder where files should be stored to be loaded by Virtuoso
+     */
+    File getTtlImportFolder();
+
+    /**
+     * @return true if Virtuoso can be reached, otherwise false
+     */
+    boolean isAvailable();
+
+    /**
+     * Waits a certain amount of time until Virtuoso is available.
+     * If that doesn't happen within the specified waiting time an exception is thrown
+     * @param maxWaitTimeSec maximum amount of time before giving up
+     * @return boolean
+     * @throws VirtuosoCmdLineException if Virtuoso cannot be reached within the provided maximum time (plus timeout)
+     */
+    default boolean waitUntilAvailable(int maxWaitTimeSec) throws VirtuosoCmdLineException {
+        long start = System.currentTimeMillis();
+        boolean available = isAvailable();
+        while (!available && (System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(maxWaitTimeSec))) {
+            try {
+                TimeUnit.SECONDS.sleep(WAIT_BETWEEN_CHECKS);
+            } catch (InterruptedException e) {
+                LogManager.getLogger(GraphManager.class).warn("Interruption while checking if Virtuoso is ready", e);
+                Thread.currentThread().interrupt();
+            }
+            available = isAvailable();
+        }
+
+        if (available) {
+            return true;
+        }
+        throw new VirtuosoCmdLineException("Virtuoso not ready after waiting " + maxWaitTimeSec + " seconds");
+    }
+
+    /**
+     * Deletes a graph from virtuoso from a dataset that is now obsolete
+     * @param datasetId the id of the dataset graph to delete
+     * @return CommandResult with the outcome of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult removeObsoleteGraph(String datasetId) throws IOException;
+
+    /**
+     * Deletes a graph from virtuoso from a dataset with a temporary name
+     * @param datasetId the id of the dataset graph to delete
+     * @return CommandResult with the outcome of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult removeTmpGraph(String datasetId) throws IOException;
+
+    /**
+     * Renames the temporary graph of a dataset to its final name
+     * @param datasetId the id of the dataset graph to rename
+     * @return CommandResult with the outcome of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult renameTmpGraph(String datasetId) throws IOException;
+
+    /**
+     * Inserts a particular TTL file in a Virtuoso graph for a particular dataset
+     * @param datasetId the id of the dataset graph to insert
+     * @param ttlFile the file to load, should be located in the TTL import folder
+     * @return CommandResult with the outcome of the operation. The operation fails if the file could not be loaded.
+     * The graph is not counted, so the count is -1
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult ingestGraph(String datasetId, File ttlFile) throws IOException;
+
+    /**
+     * Loads all files in a folder in a Virtuoso graph for a particular dataset, using multiple bulk loaders in parallel
+     * @param datasetId the id of the dataset graph to insert
+     * @param folder the folder containing the files to load, should be located in the TTL import folder
+     * @param loaders the number of loaders to run in parallel
+     * @return CommandResult with the outcome of the operation. The operation fails if any of the files could not be
+     * loaded. The graph is not counted, so the count is -1
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult bulkIngestGraph(String datasetId, File folder, int loaders) throws IOException;
+
+    /**
+     * Counts the triples in the graph of a dataset. This requires a scan of the whole graph, so it's slow for large
+     * graphs
+     * @param datasetId the id of the dataset graph to count
+     * @return CommandResult with the outcome of the operation, if successful the count is the number of triples in
+     * the graph. The operation fails if the graph is empty
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult countTriples(String datasetId) throws IOException;
+
+    /**
+     * Removes all triples that are present in one graph from the graph of a dataset, after which the graph with the
+     * triples to remove is cleared
+     * @param datasetId the id of the dataset graph to remove triples from
+     * @param triplesGraphId the id of the graph containing the triples to remove
+     * @return CommandResult with the outcome of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult removeTriples(String datasetId, String triplesGraphId) throws IOException;
+
+    /**
+     * Adds the triples of the temporary graph of a dataset to its final graph (keeping the triples already in the
+     * final graph) and clears the temporary graph
+     * @param datasetId the id of the dataset graph to merge
+     * @return CommandResult with the outcome of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult mergeTmpGraph(String datasetId) throws IOException;
+
+    /**
+     * Creates a checkpoint, writing all changes to the database files. Graphs are removed, renamed and loaded with
+     * transaction logging disabled, so changes are only durable after a checkpoint
+     * @return CommandResult with the outcome of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    CommandResult checkpoint() throws IOException;
+
+    /**
+     * @return the number of dirty buffers (changed pages not yet written by a checkpoint), or -1 if unknown
+     * @throws IOException if there's a problem while executing the command
+     */
+    long getDirtyBuffers() throws IOException;
+
+    /**
+     * Release any resources (e.g. connections) held by this graph manager
+     */
+    @Override
+    default void close() {
+        // nothing to close by default
+    }
+}
@@ -15,11 +15,23 @@ public final class IsqlTemplate {
     private static final String DATASET_ID    = "##DATASET_ID##";
     private static final String TTL_FILENAME  = "##TTL_FILENAME##";
     private static final String IMPORT_FOLDER = "##IMPORT_FOLDER##";
+    private static final String TRIPLES_GRAPH_ID = "##TRIPLES_GRAPH_ID##";
+    private static final String BATCH_SIZE = "##BATCH_SIZE##";
 
     private static final String SQL_FILE_UPDATE = "isql/create_update_graph.sql";
     private static final String SQL_FILE_RENAME = "isql/rename_graph.sql";
+    private static final String SQL_FILE_BULK_REGISTER = "isql/bulk_register_graph.sql";
+    private static final String SQL_FILE_BULK_LOAD = "isql/bulk_load_graph.sql";
+    private static final String SQL_FILE_BULK_CHECK = "isql/bulk_check_graph.sql";
+    private static final String SQL_FILE_COUNT_TRIPLES = "isql/count_triples.sql";
     private static final String SQL_FILE_REMOVE = "isql/remove_graph.sql";
+    private static final String SQL_FILE_REMOVE_BATCH = "isql/remove_graph_batch.sql";
+    private static final String SQL_FILE_REMOVE_TRIPLES = "isql/remove_triples.sql";
+    private static final String SQL_FILE_MERGE = "isql/merge_graph.sql";
+    private static final String SQL_FILE_CHECKPOINT = "isql/checkpoint.sql";
+    private static final String SQL_FILE_DIRTY_BUFFERS = "isql/dirty_buffers.sql";
     private static final String SUFFIX_NEW = "_new";
+    private static final String TTL_EXTENSION = ".ttl.gz";
 
     private IsqlTemplate() {
         // empty constructor to avoid initialization
@@ -33,16 +45,134 @@ public final class IsqlTemplate {
      * @throws IOException when there's a problem reading the generic sql script
      */
     public static String getCreateUpdateScript(File ttlImportFolder, String datasetId) throws IOException {
+        String ttlFileName = (datasetId.endsWith(SUFFIX_NEW)
+                ? datasetId.substring(0, datasetId.length() - SUFFIX_NEW.length()) : datasetId) + TTL_EXTENSION;
+        return getCreateUpdateScript(ttlImportFolder, datasetId, ttlFileName);
+    }
+
+    /**
+     * Loads the generic sql script for doing an update of a particular file and fills in the proper data
+     * @param ttlImportFolder folder where TTL file is located
+     * @param datasetId id of the data set to load
+     * @param ttlFileName name of the file to load
+     * @return string containing the generated sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getCreateUpdateScript(File ttlImportFolder, String datasetId, String ttlFileName)
+            throws IOException {
         try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_UPDATE)) {
             String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
-            templateSource = templateSource.replace(TTL_FILENAME,
-                    datasetId.endsWith(SUFFIX_NEW) ? datasetId.substring(0, datasetId.length() - SUFFIX_NEW.length()) : datasetId);
+            templateSource = templateSource.replace(TTL_FILENAME, ttlFileName);
             templateSource = templateSource.replace(DATASET_ID, datasetId);
             templateSource = templateSource.replace(IMPORT_FOLDER, ttlImportFolder.getAbsolutePath());
             return templateSource;
         }
     }
 
+    /**
+     * Loads the generic sql script for registering all files in a folder for bulk loading in a graph
+     * @param folder folder containing the files to load
+     * @param datasetId id of the data set to load
+     * @return string containing the generated sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getBulkRegisterScript(File folder, String datasetId) throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_BULK_REGISTER)) {
+            String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
+            templateSource = templateSource.replace(DATASET_ID, datasetId);
+            templateSource = templateSource.replace(IMPORT_FOLDER, folder.getAbsolutePath());
+            return templateSource;
+        }
+    }
+
+    /**
+     * Loads the generic sql script for running a bulk loader, multiple loaders can run at the same time
+     * @return string containing the sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getBulkLoadScript() throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_BULK_LOAD)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Loads the sql script for checking if all files in the load list were bulk loaded without errors
+     * @return string containing the sql script
+     * @throws IOException when there's a problem reading the sql script
+     */
+    public static String getBulkCheckScript() throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_BULK_CHECK)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Loads the generic sql script for counting the triples in the graph of a dataset
+     * @param datasetId id of the data set graph to count
+     * @return string containing the generated sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getCountTriplesScript(String datasetId) throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_COUNT_TRIPLES)) {
+            String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
+            templateSource = templateSource.replace(DATASET_ID, datasetId);
+            return templateSource;
+        }
+    }
+
+    /**
+     * Loads the generic sql script for removing the triples in one graph from the graph of a dataset
+     * @param datasetId id of the data set to remove triples from
+     * @param triplesGraphId id of the graph containing the triples to remove, this graph is cleared afterwards
+     * @return string containing the generated sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getRemoveTriplesScript(String datasetId, String triplesGraphId) throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_REMOVE_TRIPLES)) {
+            String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
+            templateSource = templateSource.replace(TRIPLES_GRAPH_ID, triplesGraphId);
+            templateSource = templateSource.replace(DATASET_ID, datasetId);
+            return templateSource;
+        }
+    }
+
+    /**
+     * Loads the generic sql script for adding the triples of the temporary graph of a dataset to its final graph
+     * @param datasetId id of the data set to merge
+     * @return string containing the generated sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getMergeGraphScript(String datasetId) throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_MERGE)) {
+            String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
+            templateSource = templateSource.replace(DATASET_ID, datasetId);
+            return templateSource;
+        }
+    }
+
+    /**
+     * Loads the sql script for creating a checkpoint
+     * @return string containing the sql script
+     * @throws IOException when there's a problem reading the sql script
+     */
+    public static String getCheckpointScript() throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_CHECKPOINT)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Loads the sql script for requesting the number of dirty buffers (changes not written by a checkpoint yet)
+     * @return string containing the sql script
+     * @throws IOException when there's a problem reading the sql script
+     */
+    public static String getDirtyBuffersScript() throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_DIRTY_BUFFERS)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
     /**
      * Loads the generic sql script for renaming a SPARQL graph
      * @param datasetId id of the data set to rename
@@ -77,6 +207,23 @@ public final class IsqlTemplate {
         return getRemoveGraphScript(datasetId, true);
     }
 
+    /**
+     * Loads the generic sql script for removing the triples of a limited number of subjects from a SPARQL graph, so
+     * a large graph can be removed in multiple transactions. The script reports how many triples were deleted.
+     * @param graphId id of the graph to delete from (e.g. the dataset id with the suffix of a temporary graph)
+     * @param batchSize maximum number of subjects of which the triples are deleted
+     * @return string containing the generated sql script
+     * @throws IOException when there's a problem reading the generic sql script
+     */
+    public static String getRemoveGraphBatchScript(String graphId, int batchSize) throws IOException {
+        try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_REMOVE_BATCH)) {
+            String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
+            templateSource = templateSource.replace(DATASET_ID, graphId);
+            templateSource = templateSource.replace(BATCH_SIZE, String.valueOf(batchSize));
+            return templateSource;
+        }
+    }
+
     private static String getRemoveGraphScript(String datasetId, boolean isTmpGraph) throws IOException {
         try (InputStream is = IsqlTemplate.class.getClassLoader().getResourceAsStream(SQL_FILE_REMOVE)) {
             String templateSource = IOUtils.toString(is, StandardCharsets.UTF_8);
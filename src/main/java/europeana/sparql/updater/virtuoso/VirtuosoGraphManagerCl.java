@@ -1,18 +1,22 @@
 package europeana.sparql.updater.virtuoso;
 
-import europeana.sparql.updater.exception.VirtuosoCmdLineException;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,13 +25,20 @@ import java.util.regex.Pattern;
  * A client for the isql command line tool of Virtuoso, which is used to create, update and remove the Europeana
  * datasets in Virtuoso's database. See also https://docs.openlinksw.com/virtuoso/virtuoso_clients_isql/
  */
-public class VirtuosoGraphManagerCl {
+public class VirtuosoGraphManagerCl implements GraphManager {
 
     private static final Logger LOG = LogManager.getLogger(VirtuosoGraphManagerCl.class);
 
     private static final int TIMEOUT_VIRTUOSO_CHECK = (int) TimeUnit.SECONDS.toMillis(5);
-    private static final int WAIT_BETWEEN_CHECKS = 5; // seconds
     private static final Pattern SUCCESS_TRIPLES = Pattern.compile("Result triples:\\s+(\\d+)");
+    private static final Pattern LOAD_ERRORS = Pattern.compile("Load errors:\\s+(\\d+)");
+    private static final Pattern DIRTY_BUFFERS = Pattern.compile("Dirty buffers:\\s+(\\d+)");
+    private static final Pattern DELETED_TRIPLES = Pattern.compile("Deleted triples:\\s+(\\d+)");
+    private static final Pattern REMAINING_TRIPLES = Pattern.compile("Remaining triples:\\s+(\\d+)");
+    private static final String SUFFIX_NEW = "_new";
+    private static final Duration PROGRESS_INTERVAL = Duration.ofMinutes(1);
+    private static final int OUTPUT_READER_WAIT_TIME = 5; // seconds
+    private static final int MAX_OUTPUT_LENGTH = 64 * 1024; // characters
 
     private final String dbaUser;
     private final String dbaPassword;
@@ -35,6 +46,8 @@ public class VirtuosoGraphManagerCl {
     private final File isqlCommand;
     private final File ttlImportFolder;
     private final File sqlFolder;
+    private Duration commandTimeout;
+    private int removeBatchSize;
 
     /**
      * Initialize a new command line manager for Virtuoso
@@ -56,10 +69,12 @@ public class VirtuosoGraphManagerCl {
         this.sqlFolder = sqlFolder;
     }
 
+    @Override
     public File getTtlImportFolder() {
         return ttlImportFolder;
     }
 
+    @Override
     @SuppressWarnings("java:S1166") // no need to log exceptions if Virtuoso is not ready yet.
     public boolean isAvailable() {
         LOG.info("Checking if Virtuoso is available...");
@@ -71,39 +86,17 @@ public class VirtuosoGraphManagerCl {
         }
     }
 
-    /**
-     * Waits a certain amount of time until we ping Virtuoso on the configured port.
-     * If that doesn't happen within the specified waiting time an exception is thrown
-     * @param maxWaitTimeSec maximum amount of time before giving up
-     * @return boolean
-     * @throws VirtuosoCmdLineException if Virtuoso cannot be reached within the provided maximum time (plus timeout)
-     */
-    public boolean waitUntilAvailable(int maxWaitTimeSec) throws VirtuosoCmdLineException  {
-        long start = System.currentTimeMillis();
-        boolean available = isAvailable();
-        while (!available && (System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(maxWaitTimeSec))) {
-            try {
-                TimeUnit.SECONDS.sleep(WAIT_BETWEEN_CHECKS);
-            } catch (InterruptedException e) {
-                LOG.warn("Interruption while checking if Virtuoso is ready", e);
-                Thread.currentThread().interrupt();
-            }
-            available = isAvailable();
-        }
-
-        if (available) {
-            return true;
-        }
-        throw new VirtuosoCmdLineException("Virtuoso not ready after waiting " + maxWaitTimeSec + " seconds");
-    }
-
     /**
      * Deletes a graph from virtuoso from a dataset that is now obsolete
      * @param datasetId the id of the dataset graph to delete
      * @return CommandResult with the exit code and output of the operation
      * @throws IOException if there's a problem while executing the command
      */
+    @Override
     public CommandResult removeObsoleteGraph(String datasetId) throws IOException {
+        if (removeBatchSize > 0) {
+            return removeGraphInBatches(datasetId);
+        }
         return removeGraph(datasetId, IsqlTemplate.getRemoveObsoleteGraphScript(datasetId));
     }
 
@@ -113,10 +106,59 @@ public class VirtuosoGraphManagerCl {
      * @return CommandResult with the exit code and output of the operation
      * @throws IOException if there's a problem while executing the command
      */
+    @Override
     public CommandResult removeTmpGraph(String datasetId) throws IOException {
+        if (removeBatchSize > 0) {
+            return removeGraphInBatches(datasetId + SUFFIX_NEW);
+        }
         return removeGraph(datasetId, IsqlTemplate.getRemoveTmpGraphScript(datasetId));
     }
 
+    /**
+     * Deletes a graph in batches of a limited number of subjects, each batch in a separate transaction, so removing a
+     * large graph doesn't hold locks (and memory) for a long time. Removal stops between batches when the thread is
+     * interrupted. After each batch the script checks if the graph still contains any triples (it only looks for one,
+     * so remaining is 0 or 1); we only report success once that check says the graph is empty.
+     */
+    private CommandResult removeGraphInBatches(String graphId) throws IOException {
+        LOG.debug("Removing graph {} in batches of {} subjects...", graphId, removeBatchSize);
+        Instant start = Instant.now();
+        Instant nextProgress = start.plus(PROGRESS_INTERVAL);
+        long deleted = 0;
+        int batches = 0;
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                LOG.warn("Removal of graph {} interrupted after deleting {} triples", graphId, deleted);
+                return CommandResult.error("Removal of graph " + graphId + " was interrupted");
+            }
+            File sqlFile = new File(sqlFolder, graphId + "_remove_batch.sql");
+            FileUtils.write(sqlFile, IsqlTemplate.getRemoveGraphBatchScript(graphId, removeBatchSize),
+                    StandardCharsets.UTF_8);
+            SqlCommandResult result = runSqlCommand(sqlFile);
+            if (result.exitCode != 0 || result.deletedTriples == null || result.remainingTriples == null) {
+                return CommandResult.error(result.exitCode, result.output);
+            }
+            deleted += result.deletedTriples;
+            batches++;
+            LOG.debug("Deleted {} triples from graph {} (batch {})", result.deletedTriples, graphId, batches);
+            if (result.remainingTriples == 0) {
+                break;
+            }
+            if (result.deletedTriples == 0) {
+                // nothing was deleted but the graph isn't empty, trying again won't help
+                return CommandResult.error("Unable to remove graph " + graphId + ", batch " + batches
+                        + " didn't delete any triples");
+            }
+            if (Instant.now().isAfter(nextProgress)) {
+                LOG.info("Deleted {} triples from graph {} so far ({} batches)", deleted, graphId, batches);
+                nextProgress = Instant.now().plus(PROGRESS_INTERVAL);
+            }
+        }
+        LOG.debug("Removed {} triples from graph {} in {} batches, took {}", deleted, graphId, batches,
+                Duration.between(start, Instant.now()));
+        return CommandResult.success("Removal successful", deleted);
+    }
+
     private CommandResult removeGraph(String datasetId, String sqlString) throws IOException {
         LOG.debug("Removing graph for data set {}...", datasetId);
         File sqlFile = new File(sqlFolder, datasetId + "_remove.sql");
@@ -136,6 +178,7 @@ public class VirtuosoGraphManagerCl {
      * @return CommandResult with the exit code and output of the operation
      * @throws IOException if there's a problem while executing the command
      */
+    @Override
     public CommandResult renameTmpGraph(String datasetId) throws IOException {
         LOG.debug("Renaming graph for data set {}...", datasetId);
         String sqlString = IsqlTemplate.getRenameGraphScript(datasetId);
@@ -158,58 +201,351 @@ public class VirtuosoGraphManagerCl {
      */
     public CommandResult ingestGraph(String datasetId) throws IOException {
         LOG.debug("Ingesting graph for dataset {}...", datasetId);
-        String sqlString = IsqlTemplate.getCreateUpdateScript(ttlImportFolder, datasetId);
+        return ingestGraph(datasetId, IsqlTemplate.getCreateUpdateScript(ttlImportFolder, datasetId));
+    }
+
+    /**
+     * Inserts a particular TTL file in a Virtuoso graph for a particular dataset
+     * @param datasetId the id of the dataset graph to insert
+     * @param ttlFile the file to load, should be located in the TTL import folder
+     * @return CommandResult with the exit code and output of the operation
+     * @throws IOException if there's a problem while executing the command
+     */
+    @Override
+    public CommandResult ingestGraph(String datasetId, File ttlFile) throws IOException {
+        LOG.debug("Ingesting file {} in graph for dataset {}...", ttlFile.getName(), datasetId);
+        return ingestGraph(datasetId, IsqlTemplate.getCreateUpdateScript(ttlImportFolder, datasetId, ttlFile.getName()));
+    }
+
+    private CommandResult ingestGraph(String datasetId, String sqlString) throws IOException {
         File sqlFile = new File(sqlFolder, datasetId + "_create_update.sql");
         FileUtils.write(sqlFile, sqlString, StandardCharsets.UTF_8);
 
-        SqlCommandResult result = runSqlCommand(sqlFile);
-        if (result.exitCode == 0) {
-            Matcher matcher = SUCCESS_TRIPLES.matcher(result.output);
-            if (matcher.find()) {
-                if (("0").equals(matcher.group(1))) {
-                    return CommandResult.error("Empty dataset. Output:\n" + result.output);
-                }
-                return CommandResult.success(matcher.group(1) + " triples");
+        return getLoadResult(runSqlCommand(sqlFile), sqlFile.getName());
+    }
+
+    /**
+     * Check the status of the load list (as reported by the script) instead of counting the whole graph after every
+     * file that was loaded
+     */
+    private static CommandResult getLoadResult(SqlCommandResult result, String loaded) {
+        if (result.exitCode != 0) {
+            return CommandResult.error(result.exitCode, result.output);
+        }
+        if (result.loadErrors == null || result.loadErrors != 0) {
+            return CommandResult.error("Error loading " + loaded + ". Output:\n" + result.output);
+        }
+        return CommandResult.success("Loaded " + loaded);
+    }
+
+    @Override
+    public CommandResult countTriples(String datasetId) throws IOException {
+        LOG.debug("Counting triples in graph for data set {}...", datasetId);
+        File sqlFile = new File(sqlFolder, datasetId + "_count.sql");
+        FileUtils.write(sqlFile, IsqlTemplate.getCountTriplesScript(datasetId), StandardCharsets.UTF_8);
+
+        return getTriplesResult(runSqlCommand(sqlFile));
+    }
+
+    private static CommandResult getTriplesResult(SqlCommandResult result) {
+        if (result.exitCode == 0 && result.triples != null) {
+            if (result.triples == 0) {
+                return CommandResult.error("Empty dataset. Output:\n" + result.output);
             }
+            return CommandResult.success(result.triples + " triples", result.triples);
         }
         return CommandResult.error(result.exitCode, "Triples not found:" + result.output);
     }
 
+    @Override
+    public CommandResult bulkIngestGraph(String datasetId, File folder, int loaders) throws IOException {
+        LOG.debug("Bulk loading files in {} in graph for dataset {} using {} loaders...", folder, datasetId, loaders);
+        File registerFile = new File(sqlFolder, datasetId + "_bulk_register.sql");
+        FileUtils.write(registerFile, IsqlTemplate.getBulkRegisterScript(folder, datasetId), StandardCharsets.UTF_8);
+        SqlCommandResult result = runSqlCommand(registerFile);
+        if (result.exitCode != 0) {
+            return CommandResult.error(result.exitCode, result.output);
+        }
+
+        // each loader needs its own isql session
+        String loadScript = IsqlTemplate.getBulkLoadScript();
+        List<File> loadFiles = new ArrayList<>(loaders);
+        for (int i = 0; i < Math.max(1, loaders); i++) {
+            File loadFile = new File(sqlFolder, datasetId + "_bulk_load_" + i + ".sql");
+            FileUtils.write(loadFile, loadScript, StandardCharsets.UTF_8);
+            loadFiles.add(loadFile);
+        }
+        for (SqlCommandResult loadResult : runSqlCommands(loadFiles)) {
+            if (loadResult.exitCode != 0) {
+                return CommandResult.error(loadResult.exitCode, loadResult.output);
+            }
+        }
+
+        File checkFile = new File(sqlFolder, datasetId + "_bulk_check.sql");
+        FileUtils.write(checkFile, IsqlTemplate.getBulkCheckScript(), StandardCharsets.UTF_8);
+        return getLoadResult(runSqlCommand(checkFile), "files in " + folder);
+    }
+
+    @Override
+    public CommandResult removeTriples(String datasetId, String triplesGraphId) throws IOException {
+        LOG.debug("Removing triples in graph {} from graph for data set {}...", triplesGraphId, datasetId);
+        File sqlFile = new File(sqlFolder, datasetId + "_remove_triples.sql");
+        FileUtils.write(sqlFile, IsqlTemplate.getRemoveTriplesScript(datasetId, triplesGraphId),
+                StandardCharsets.UTF_8);
+
+        SqlCommandResult result = runSqlCommand(sqlFile);
+        if (result.exitCode == 0) {
+            return CommandResult.success("Removal successful");
+        } else {
+            return CommandResult.error(result.exitCode, result.output);
+        }
+    }
+
+    @Override
+    public CommandResult mergeTmpGraph(String datasetId) throws IOException {
+        LOG.debug("Merging temporary graph for data set {}...", datasetId);
+        File sqlFile = new File(sqlFolder, datasetId + "_merge.sql");
+        FileUtils.write(sqlFile, IsqlTemplate.getMergeGraphScript(datasetId), StandardCharsets.UTF_8);
+
+        SqlCommandResult result = runSqlCommand(sqlFile);
+        if (result.exitCode == 0) {
+            return CommandResult.success("Merge successful");
+        } else {
+            return CommandResult.error(result.exitCode, result.output);
+        }
+    }
+
+    @Override
+    public CommandResult checkpoint() throws IOException {
+        LOG.debug("Creating checkpoint...");
+        File sqlFile = new File(sqlFolder, "checkpoint.sql");
+        FileUtils.write(sqlFile, IsqlTemplate.getCheckpointScript(), StandardCharsets.UTF_8);
+
+        SqlCommandResult result = runSqlCommand(sqlFile);
+        if (result.exitCode == 0) {
+            return CommandResult.success("Checkpoint successful");
+        } else {
+            return CommandResult.error(result.exitCode, result.output);
+        }
+    }
+
+    @Override
+    public long getDirtyBuffers() throws IOException {
+        File sqlFile = new File(sqlFolder, "dirty_buffers.sql");
+        FileUtils.write(sqlFile, IsqlTemplate.getDirtyBuffersScript(), StandardCharsets.UTF_8);
+
+        SqlCommandResult result = runSqlCommand(sqlFile);
+        if (result.exitCode == 0 && result.dirtyBuffers != null) {
+            return result.dirtyBuffers;
+        }
+        LOG.warn("Unable to determine number of dirty buffers: {}", result.output);
+        return -1;
+    }
+
     private SqlCommandResult runSqlCommand(File sqlFile) throws IOException {
+        return runSqlCommands(List.of(sqlFile)).get(0);
+    }
+
+    /**
+     * Run multiple sql script files at the same time, each in a separate isql process. The output of each process is
+     * read (and parsed) while it's running, so a process can't block on a full output buffer. If the processes don't
+     * finish within the command timeout they are killed and reported as failed.
+     */
+    private List<SqlCommandResult> runSqlCommands(List<File> sqlFiles) throws IOException {
+        List<SqlCommandResult> results = new ArrayList<>(sqlFiles.size());
+        List<Process> processes = new ArrayList<>(sqlFiles.size());
         try {
-            LOG.debug("Starting process to execute {}...", sqlFile.getName());
-            ProcessBuilder processBuilder = new ProcessBuilder(isqlCommand.getAbsolutePath(), String.valueOf(portNumber),
-                    dbaUser, dbaPassword,
-                    (LOG.isDebugEnabled() || LOG.isTraceEnabled() ? "VERBOSE=ON" : "VERBOSE=OFF"),
-                    sqlFile.getAbsolutePath());
-            Process process = processBuilder.redirectErrorStream(true).start();
-            process.waitFor();
-            return new SqlCommandResult(process);
+            for (File sqlFile : sqlFiles) {
+                LOG.debug("Starting process to execute {}...", sqlFile.getName());
+                ProcessBuilder processBuilder = new ProcessBuilder(isqlCommand.getAbsolutePath(),
+                        String.valueOf(portNumber), dbaUser, dbaPassword,
+                        (LOG.isDebugEnabled() || LOG.isTraceEnabled() ? "VERBOSE=ON" : "VERBOSE=OFF"),
+                        sqlFile.getAbsolutePath());
+                Process process = processBuilder.redirectErrorStream(true).start();
+                processes.add(process);
+                results.add(new SqlCommandResult(sqlFile.getName(), process));
+            }
+            Instant deadline = (commandTimeout == null ? null : Instant.now().plus(commandTimeout));
+            for (SqlCommandResult result : results) {
+                result.waitFor(deadline);
+            }
         } catch (InterruptedException e) {
             LOG.warn("Process was interrupted", e);
             Thread.currentThread().interrupt();
         } finally {
-            LOG.debug("Deleting SQL file {}...", sqlFile);
-            Files.deleteIfExists(sqlFile.toPath());
+            for (Process process : processes) {
+                if (process.isAlive()) {
+                    LOG.warn("Killing isql process {}...", process.pid());
+                    kill(process);
+                }
+            }
+            for (File sqlFile : sqlFiles) {
+                LOG.debug("Deleting SQL file {}...", sqlFile);
+                Files.deleteIfExists(sqlFile.toPath());
+            }
+        }
+        while (results.size() < sqlFiles.size()) {
+            results.add(new SqlCommandResult(sqlFiles.get(results.size()).getName(), null));
         }
-        return new SqlCommandResult(null);
+        return results;
     }
 
+    private static void kill(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * Set how graphs are removed. By default a graph is removed with one SPARQL CLEAR GRAPH, which for large graphs
+     * means one long transaction
+     * @param removeBatchSize if larger than 0, graphs are removed in batches of this number of subjects
+     */
+    public void setRemoveBatchSize(int removeBatchSize) {
+        this.removeBatchSize = removeBatchSize;
+    }
+
+    /**
+     * Set the maximum time an isql command may take. Note that killing the isql process doesn't necessarily stop the
+     * operation in Virtuoso itself.
+     * @param commandTimeout the maximum duration, if null (default) commands can take forever
+     */
+    public void setCommandTimeout(Duration commandTimeout) {
+        this.commandTimeout = commandTimeout;
+    }
+
+    /**
+     * Output and exit code of an isql process. The output is read by a separate thread while the process is running
+     * and the values we're interested in (e.g. the number of triples) are parsed line by line. Only the last part of the
+     * output is kept, for error messages.
+     */
     private static final class SqlCommandResult {
+        private final String name;
+        private final Process process;
+        private final Thread outputReader;
+        private final StringBuilder outputTail = new StringBuilder();
+        private volatile int lines;
+        private volatile String lastLine;
+        private Long triples;
+        private Long loadErrors;
+        private Long dirtyBuffers;
+        private Long deletedTriples;
+        private Long remainingTriples;
         private int exitCode = -1;
         private String output = null;
 
-        public SqlCommandResult(Process process) throws IOException {
-            if (process != null) {
-                this.exitCode = process.exitValue();
-                this.output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("Process exit value = {}, output = {}", exitCode, output);
-                } else {
-                    LOG.debug("Process exit value = {}", exitCode);
+        SqlCommandResult(String name, Process process) {
+            this.name = name;
+            this.process = process;
+            if (process == null) {
+                LOG.error("Process is null!");
+                this.outputReader = null;
+            } else {
+                this.outputReader = new Thread(this::readOutput, "isql-output-" + process.pid());
+                this.outputReader.setDaemon(true);
+                this.outputReader.start();
+            }
+        }
+
+        private void readOutput() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parseLine(line);
                 }
+            } catch (IOException e) {
+                // the stream is closed when the process is killed
+                LOG.debug("Stopped reading output of {}", name, e);
+            }
+        }
+
+        private void parseLine(String line) {
+            LOG.trace("{}: {}", name, line);
+            Long value = findNumber(SUCCESS_TRIPLES, line);
+            if (value != null) {
+                triples = value;
+                LOG.debug("{}: graph contains {} triples", name, value);
+            }
+            value = findNumber(LOAD_ERRORS, line);
+            if (value != null) {
+                loadErrors = value;
+            }
+            value = findNumber(DIRTY_BUFFERS, line);
+            if (value != null) {
+                dirtyBuffers = value;
+            }
+            value = findNumber(DELETED_TRIPLES, line);
+            if (value != null) {
+                deletedTriples = value;
+            }
+            value = findNumber(REMAINING_TRIPLES, line);
+            if (value != null) {
+                remainingTriples = value;
+            }
+            synchronized (outputTail) {
+                outputTail.append(line).append('\n');
+                if (outputTail.length() > MAX_OUTPUT_LENGTH) {
+                    outputTail.delete(0, outputTail.length() - MAX_OUTPUT_LENGTH);
+                }
+            }
+            if (!line.isBlank()) {
+                lastLine = line;
+            }
+            lines++;
+        }
+
+        private static Long findNumber(Pattern pattern, String line) {
+            Matcher matcher = pattern.matcher(line);
+            return (matcher.find() ? Long.valueOf(matcher.group(1)) : null);
+        }
+
+        /**
+         * Wait until the process finished and all output was read, logging progress while waiting
+         * @param deadline if not null, the process is killed when it's still running at this time
+         */
+        void waitFor(Instant deadline) throws InterruptedException {
+            if (process == null) {
+                return;
+            }
+            Instant start = Instant.now();
+            while (process.isAlive()) {
+                Duration wait = PROGRESS_INTERVAL;
+                if (deadline != null) {
+                    Duration remaining = Duration.between(Instant.now(), deadline);
+                    if (remaining.isNegative() || remaining.isZero()) {
+                        break;
+                    }
+                    wait = (remaining.compareTo(wait) < 0 ? remaining : wait);
+                }
+                if (process.waitFor(wait.toMillis(), TimeUnit.MILLISECONDS)
+                        || (deadline != null && !Instant.now().isBefore(deadline))) {
+                    continue;
+                }
+                LOG.info("{} still running after {} minutes ({} lines of output, last: {})", name,
+                        Duration.between(start, Instant.now()).toMinutes(), lines, lastLine);
+            }
+            if (process.isAlive()) {
+                LOG.error("{} did not finish within {}, killing process...", name,
+                        Duration.between(start, Instant.now()));
+                kill(process);
+                outputReader.join(TimeUnit.SECONDS.toMillis(OUTPUT_READER_WAIT_TIME));
+                output = "Timeout: " + name + " did not finish in time, process was killed. Output:\n"
+                        + getOutputTail();
+                return;
+            }
+            outputReader.join();
+            exitCode = process.exitValue();
+            output = getOutputTail();
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Process exit value = {}, output = {}", exitCode, output);
             } else {
-                LOG.error("Process is null!");
+                LOG.debug("Process exit value = {}", exitCode);
+            }
+        }
+
+        private String getOutputTail() {
+            synchronized (outputTail) {
+                return outputTail.toString();
             }
         }
     }
@@ -0,0 +1,452 @@
+package europeana.sparql.updater.virtuoso;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Manages Europeana dataset graphs in Virtuoso using JDBC. Unlike the VirtuosoGraphManagerCl this doesn't start an
+ * isql process (and login again) for every command, but keeps a small pool of open connections. All commands are
+ * executed as parameterized statements, so errors are reported by the driver instead of having to parse isql output.
+ * <p>
+ * The Virtuoso JDBC driver is not available in public Maven repositories. If it's not on the classpath it is loaded
+ * from the provided jar file (e.g. the driver included in the Virtuoso installation).
+ */
+public class VirtuosoGraphManagerJdbc implements GraphManager {
+
+    private static final Logger LOG = LogManager.getLogger(VirtuosoGraphManagerJdbc.class);
+
+    private static final String DRIVER_CLASS = "virtuoso.jdbc4.Driver";
+    private static final String GRAPH_IRI_PREFIX = "http://data.europeana.eu/dataset/";
+    private static final String SUFFIX_NEW = "_new";
+    private static final int VALIDATION_TIMEOUT = 5; // seconds
+
+    private static final String LOG_ENABLE = "log_enable(?)";
+    private static final String CLEAR_LOAD_LIST = "DELETE FROM DB.DBA.load_list";
+    private static final String REGISTER_FILE = "ld_dir(?, ?, ?)";
+    private static final String REGISTER_FOLDER = "ld_dir_all(?, '*.gz', ?)";
+    private static final String RUN_LOADER = "rdf_loader_run()";
+    private static final String LOAD_ERRORS = "SELECT ll_file, ll_error FROM DB.DBA.load_list WHERE ll_error IS NOT NULL";
+    private static final String COUNT_TRIPLES = "SELECT COUNT(*) FROM DB.DBA.RDF_QUAD WHERE G = iri_to_id(?, 0)";
+    private static final String DELETE_GRAPH = "DELETE FROM DB.DBA.RDF_QUAD WHERE G = iri_to_id(?, 0)";
+    private static final String RENAME_GRAPH = "UPDATE DB.DBA.RDF_QUAD TABLE OPTION (index RDF_QUAD_GS) "
+            + "SET G = iri_to_id(?) WHERE G = iri_to_id(?, 0)";
+    private static final String REMOVE_TRIPLES = "SPARQL DELETE { GRAPH <%s> { ?s ?p ?o } } WHERE { GRAPH <%s> { ?s ?p ?o } }";
+    private static final String MERGE_GRAPH = "SPARQL INSERT { GRAPH <%s> { ?s ?p ?o } } WHERE { GRAPH <%s> { ?s ?p ?o } }";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String DIRTY_BUFFERS = "SELECT sys_stat('st_db_dirty_buffers')";
+
+    private final Driver driver;
+    private final String url;
+    private final Properties connectionProperties = new Properties();
+    private final File ttlImportFolder;
+    private final int poolSize;
+    private final BlockingQueue<Connection> idleConnections;
+    // one permit per connection that can be borrowed, so a broken connection that is closed makes room for a new one
+    private final Semaphore permits;
+    private int openConnections;
+
+    /**
+     * Initialize a new JDBC manager for Virtuoso
+     * @param portNumber the port on which to communicate with Virtuoso
+     * @param dbaUser username
+     * @param dbaPassword password
+     * @param ttlImportFolder location for loading TTL.gz files
+     * @param poolSize maximum number of open connections
+     * @param driverJar jar file containing the Virtuoso JDBC driver, only used if the driver is not on the classpath
+     */
+    public VirtuosoGraphManagerJdbc(int portNumber, String dbaUser, String dbaPassword, File ttlImportFolder,
+                                    int poolSize, File driverJar) {
+        this.driver = loadDriver(driverJar);
+        this.url = "jdbc:virtuoso://localhost:" + portNumber;
+        this.connectionProperties.setProperty("user", dbaUser);
+        this.connectionProperties.setProperty("password", dbaPassword);
+        this.ttlImportFolder = ttlImportFolder;
+        this.poolSize = Math.max(1, poolSize);
+        this.idleConnections = new ArrayBlockingQueue<>(this.poolSize);
+        this.permits = new Semaphore(this.poolSize, true);
+    }
+
+    /**
+     * Check that the Virtuoso JDBC driver can be loaded, so a wrong driver location is reported at startup
+     * @param driverJar jar file containing the Virtuoso JDBC driver, only used if the driver is not on the classpath
+     * @throws IllegalStateException when the driver can't be loaded
+     */
+    public static void checkDriver(File driverJar) {
+        loadDriver(driverJar);
+    }
+
+    private static Driver loadDriver(File driverJar) {
+        try {
+            Class<?> driverClass;
+            try {
+                driverClass = Class.forName(DRIVER_CLASS);
+            } catch (ClassNotFoundException e) {
+                LOG.info("Loading Virtuoso JDBC driver from {}", driverJar);
+                // the class loader stays open as long as the driver is used
+                @SuppressWarnings("java:S2095")
+                URLClassLoader loader = new URLClassLoader(new URL[]{driverJar.toURI().toURL()},
+                        VirtuosoGraphManagerJdbc.class.getClassLoader());
+                driverClass = Class.forName(DRIVER_CLASS, true, loader);
+            }
+            return (Driver) driverClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | MalformedURLException e) {
+            throw new IllegalStateException("Unable to load Virtuoso JDBC driver from " + driverJar, e);
+        }
+    }
+
+    @Override
+    public File getTtlImportFolder() {
+        return ttlImportFolder;
+    }
+
+    /**
+     * Borrow an idle connection or open a new one, waiting until a connection is returned if all connections are in use.
+     * Every borrowed connection must be returned with releaseConnection()
+     */
+    private Connection borrowConnection() throws SQLException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to Virtuoso", e);
+        }
+        try {
+            Connection connection = idleConnections.poll();
+            while (connection != null) {
+                if (connection.isValid(VALIDATION_TIMEOUT)) {
+                    return connection;
+                }
+                LOG.debug("Closing invalid connection to Virtuoso");
+                closeQuietly(connection);
+                connection = idleConnections.poll();
+            }
+            // with a permit and no idle connections, fewer than poolSize connections are open
+            Connection newConnection = driver.connect(url, connectionProperties);
+            if (newConnection == null) {
+                throw new SQLException("Driver doesn't accept url " + url);
+            }
+            synchronized (this) {
+                openConnections++;
+                LOG.debug("Opened connection {} to Virtuoso", openConnections);
+            }
+            return newConnection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void releaseConnection(Connection connection, boolean broken) {
+        if (broken || !idleConnections.offer(connection)) {
+            closeQuietly(connection);
+        }
+        permits.release();
+    }
+
+    private void closeQuietly(Connection connection) {
+        synchronized (this) {
+            openConnections--;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.debug("Error closing connection to Virtuoso", e);
+        }
+    }
+
+    /**
+     * A command that is executed using one connection
+     */
+    @FunctionalInterface
+    private interface SqlCommand {
+        CommandResult execute(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Borrow a connection, run the command and return the connection to the pool. Errors are converted to a failed
+     * CommandResult
+     */
+    private CommandResult run(String description, SqlCommand command) {
+        Connection connection;
+        try {
+            connection = borrowConnection();
+        } catch (SQLException e) {
+            LOG.error("Unable to connect to Virtuoso", e);
+            return error("Unable to connect to Virtuoso", e);
+        }
+        boolean broken = false;
+        try {
+            return command.execute(connection);
+        } catch (SQLException e) {
+            LOG.error("Error {}", description, e);
+            // we don't know in which state the connection is (e.g. logging disabled), so we don't reuse it
+            broken = true;
+            return error("Error " + description, e);
+        } finally {
+            releaseConnection(connection, broken);
+        }
+    }
+
+    private static CommandResult error(String message, SQLException e) {
+        return CommandResult.error(message + ": [" + e.getSQLState() + "] " + e.getMessage());
+    }
+
+    @Override
+    @SuppressWarnings("java:S1166") // no need to log exceptions if Virtuoso is not ready yet.
+    public boolean isAvailable() {
+        LOG.info("Checking if Virtuoso is available...");
+        Connection connection;
+        try {
+            connection = borrowConnection();
+        } catch (SQLException e) {
+            return false;
+        }
+        releaseConnection(connection, false);
+        return true;
+    }
+
+    @Override
+    public CommandResult removeObsoleteGraph(String datasetId) {
+        return removeGraph(datasetId);
+    }
+
+    @Override
+    public CommandResult removeTmpGraph(String datasetId) {
+        return removeGraph(datasetId + SUFFIX_NEW);
+    }
+
+    private CommandResult removeGraph(String graphId) {
+        LOG.debug("Removing graph {}...", graphId);
+        return run("removing graph " + graphId, connection -> {
+            setLogging(connection, 2);
+            long deleted = executeUpdate(connection, DELETE_GRAPH, GRAPH_IRI_PREFIX + graphId);
+            setLogging(connection, 1);
+            LOG.debug("Removed {} triples from graph {}", deleted, graphId);
+            return CommandResult.success("Removal successful", deleted);
+        });
+    }
+
+    @Override
+    public CommandResult renameTmpGraph(String datasetId) {
+        LOG.debug("Renaming graph for data set {}...", datasetId);
+        return run("renaming graph of dataset " + datasetId, connection -> {
+            setLogging(connection, 2);
+            long renamed = executeUpdate(connection, RENAME_GRAPH, GRAPH_IRI_PREFIX + datasetId,
+                    GRAPH_IRI_PREFIX + datasetId + SUFFIX_NEW);
+            setLogging(connection, 1);
+            return CommandResult.success("Rename successful", renamed);
+        });
+    }
+
+    @Override
+    public CommandResult ingestGraph(String datasetId, File ttlFile) {
+        LOG.debug("Ingesting file {} in graph for dataset {}...", ttlFile.getName(), datasetId);
+        return run("loading file " + ttlFile.getName(), connection -> {
+            setLogging(connection, 2);
+            executeUpdate(connection, CLEAR_LOAD_LIST);
+            executeUpdate(connection, REGISTER_FILE, ttlImportFolder.getAbsolutePath(), ttlFile.getName(),
+                    GRAPH_IRI_PREFIX + datasetId);
+            execute(connection, RUN_LOADER);
+            setLogging(connection, 1);
+            return checkLoad(connection, ttlFile.getName());
+        });
+    }
+
+    @Override
+    public CommandResult bulkIngestGraph(String datasetId, File folder, int loaders) {
+        LOG.debug("Bulk loading files in {} in graph for dataset {} using {} loaders...", folder, datasetId, loaders);
+        CommandResult result = run("registering files in " + folder, connection -> {
+            setLogging(connection, 2);
+            executeUpdate(connection, CLEAR_LOAD_LIST);
+            executeUpdate(connection, REGISTER_FOLDER, folder.getAbsolutePath(), GRAPH_IRI_PREFIX + datasetId);
+            setLogging(connection, 1);
+            return CommandResult.success("Files registered");
+        });
+        if (!result.isSuccess()) {
+            return result;
+        }
+
+        // each loader needs its own connection, all loaders pick files from the same load_list
+        int nrLoaders = Math.max(1, Math.min(loaders, poolSize));
+        if (nrLoaders < loaders) {
+            LOG.warn("Only {} connections to Virtuoso, using {} instead of {} loaders", poolSize, nrLoaders, loaders);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(nrLoaders, runnable -> {
+            Thread thread = new Thread(runnable, "virtuoso-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<CommandResult>> loaderResults = new ArrayList<>(nrLoaders);
+            for (int i = 0; i < nrLoaders; i++) {
+                loaderResults.add(executor.submit(() -> run("running bulk loader", connection -> {
+                    execute(connection, RUN_LOADER);
+                    return CommandResult.success("Loader finished");
+                })));
+            }
+            for (Future<CommandResult> loaderResult : loaderResults) {
+                CommandResult loaded = loaderResult.get();
+                if (result.isSuccess() && !loaded.isSuccess()) {
+                    result = loaded;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CommandResult.error("Interrupted while loading files in " + folder);
+        } catch (ExecutionException e) {
+            return CommandResult.error("Error loading files in " + folder + ": " + e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!result.isSuccess()) {
+            return result;
+        }
+        return run("checking files loaded from " + folder, connection ->
+                checkLoad(connection, folder.getName()));
+    }
+
+    /**
+     * Check if all files in the load_list were loaded without errors
+     */
+    private static CommandResult checkLoad(Connection connection, String loaded) throws SQLException {
+        List<String> errors = getLoadErrors(connection);
+        if (!errors.isEmpty()) {
+            return CommandResult.error("Error loading " + loaded + ": " + String.join("; ", errors));
+        }
+        return CommandResult.success("Loaded " + loaded);
+    }
+
+    @Override
+    public CommandResult countTriples(String datasetId) {
+        LOG.debug("Counting triples in graph for data set {}...", datasetId);
+        return run("counting triples of dataset " + datasetId, connection -> {
+            long triples = countTriples(connection, GRAPH_IRI_PREFIX + datasetId);
+            if (triples == 0) {
+                return CommandResult.error("Empty dataset, no triples in graph " + datasetId);
+            }
+            return CommandResult.success(triples + " triples", triples);
+        });
+    }
+
+    @Override
+    public CommandResult removeTriples(String datasetId, String triplesGraphId) {
+        LOG.debug("Removing triples in graph {} from graph for data set {}...", triplesGraphId, datasetId);
+        return run("removing triples from graph of dataset " + datasetId, connection -> {
+            setLogging(connection, 2);
+            // SPARQL doesn't support parameters for graph names, dataset ids are numeric
+            execute(connection, String.format(REMOVE_TRIPLES, GRAPH_IRI_PREFIX + datasetId,
+                    GRAPH_IRI_PREFIX + triplesGraphId));
+            executeUpdate(connection, DELETE_GRAPH, GRAPH_IRI_PREFIX + triplesGraphId);
+            setLogging(connection, 1);
+            return CommandResult.success("Removal successful");
+        });
+    }
+
+    @Override
+    public CommandResult mergeTmpGraph(String datasetId) {
+        LOG.debug("Merging temporary graph for data set {}...", datasetId);
+        return run("merging graph of dataset " + datasetId, connection -> {
+            setLogging(connection, 2);
+            execute(connection, String.format(MERGE_GRAPH, GRAPH_IRI_PREFIX + datasetId,
+                    GRAPH_IRI_PREFIX + datasetId + SUFFIX_NEW));
+            executeUpdate(connection, DELETE_GRAPH, GRAPH_IRI_PREFIX + datasetId + SUFFIX_NEW);
+            setLogging(connection, 1);
+            return CommandResult.success("Merge successful");
+        });
+    }
+
+    @Override
+    public CommandResult checkpoint() {
+        LOG.debug("Creating checkpoint...");
+        return run("creating checkpoint", connection -> {
+            execute(connection, CHECKPOINT);
+            return CommandResult.success("Checkpoint successful");
+        });
+    }
+
+    @Override
+    public long getDirtyBuffers() {
+        CommandResult result = run("requesting dirty buffers", connection -> {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(DIRTY_BUFFERS)) {
+                return CommandResult.success("Dirty buffers", rs.next() ? rs.getLong(1) : -1);
+            }
+        });
+        return result.isSuccess() ? result.getCount() : -1;
+    }
+
+    private static List<String> getLoadErrors(Connection connection) throws SQLException {
+        List<String> errors = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(LOAD_ERRORS)) {
+            while (rs.next()) {
+                errors.add(rs.getString(1) + ": " + rs.getString(2));
+            }
+        }
+        return errors;
+    }
+
+    private static long countTriples(Connection connection, String graphIri) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(COUNT_TRIPLES)) {
+            statement.setString(1, graphIri);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static void setLogging(Connection connection, int mode) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(LOG_ENABLE)) {
+            statement.setInt(1, mode);
+            statement.execute();
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static long executeUpdate(Connection connection, String sql, String... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Close all connections
+     */
+    @Override
+    public void close() {
+        Connection connection = idleConnections.poll();
+        while (connection != null) {
+            closeQuietly(connection);
+            connection = idleConnections.poll();
+        }
+    }
+}
@@ -0,0 +1,3 @@
+select 'Load errors: ', count(*) from DB.DBA.load_list where ll_error is not null;
+
+select ll_file, ll_error from DB.DBA.load_list where ll_error is not null;
@@ -0,0 +1 @@
+rdf_loader_run();
@@ -0,0 +1,7 @@
+log_enable(2);
+
+delete from DB.DBA.load_list;
+
+ld_dir_all ('##IMPORT_FOLDER##', '*.gz', 'http://data.europeana.eu/dataset/##DATASET_ID##');
+
+log_enable(1);
@@ -0,0 +1 @@
+checkpoint;
@@ -0,0 +1 @@
+sparql select 'Result triples: ', count(*) FROM <http://data.europeana.eu/dataset/##DATASET_ID##> WHERE {?s ?p ?o};
@@ -0,0 +1 @@
+select 'Dirty buffers: ', sys_stat('st_db_dirty_buffers');
@@ -0,0 +1,8 @@
+log_enable(2);
+
+SPARQL INSERT { GRAPH <http://data.europeana.eu/dataset/##DATASET_ID##> { ?s ?p ?o } }
+ WHERE { GRAPH <http://data.europeana.eu/dataset/##DATASET_ID##_new> { ?s ?p ?o } };
+
+SPARQL CLEAR GRAPH  <http://data.europeana.eu/dataset/##DATASET_ID##_new>;
+
+log_enable(1);
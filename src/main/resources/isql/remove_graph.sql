@@ -2,6 +2,4 @@ log_enable(2);
 
 SPARQL CLEAR GRAPH  <http://data.europeana.eu/dataset/##DATASET_ID##>;
 
-checkpoint;
-
 log_enable(1);
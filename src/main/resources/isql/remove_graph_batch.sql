@@ -0,0 +1,17 @@
+log_enable(2);
+
+{
+  declare label varchar;
+  declare deleted integer;
+  result_names (label, deleted);
+  DELETE FROM DB.DBA.RDF_QUAD TABLE OPTION (index RDF_QUAD_GS)
+   WHERE G = iri_to_id('http://data.europeana.eu/dataset/##DATASET_ID##', 0)
+     AND S IN (SELECT TOP ##BATCH_SIZE## S FROM DB.DBA.RDF_QUAD TABLE OPTION (index RDF_QUAD_GS)
+                WHERE G = iri_to_id('http://data.europeana.eu/dataset/##DATASET_ID##', 0));
+  result ('Deleted triples: ', row_count());
+};
+
+select 'Remaining triples: ', count(*) FROM (SELECT TOP 1 1 AS X FROM DB.DBA.RDF_QUAD TABLE OPTION (index RDF_QUAD_GS)
+                                             WHERE G = iri_to_id('http://data.europeana.eu/dataset/##DATASET_ID##', 0)) T;
+
+log_enable(1);
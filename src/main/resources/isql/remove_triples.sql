@@ -0,0 +1,8 @@
+log_enable(2);
+
+SPARQL DELETE { GRAPH <http://data.europeana.eu/dataset/##DATASET_ID##> { ?s ?p ?o } }
+ WHERE { GRAPH <http://data.europeana.eu/dataset/##TRIPLES_GRAPH_ID##> { ?s ?p ?o } };
+
+SPARQL CLEAR GRAPH  <http://data.europeana.eu/dataset/##TRIPLES_GRAPH_ID##>;
+
+log_enable(1);
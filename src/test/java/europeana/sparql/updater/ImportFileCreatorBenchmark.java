@@ -0,0 +1,136 @@
+package europeana.sparql.updater;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the time needed to generate a TTL file from a dataset zip file by filtering the @prefix lines of each
+ * record on bytes (Turtle output) with converting each record using the Jena streaming parser (N-Triples output).
+ * Generated files are not compressed, so only the handling of records is measured.
+ * <p>
+ * By default a sample dataset is generated, to use a real dataset provide its zip file with -Dbenchmark.zip=[file].
+ * Run with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main ImportFileCreatorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImportFileCreatorBenchmark {
+
+    private static final String DATASET_ID = "0";
+    private static final int SAMPLE_RECORDS = 5000;
+    private static final String SAMPLE_PREFIXES = """
+            @prefix dc: <http://purl.org/dc/elements/1.1/> .
+            @prefix dcterms: <http://purl.org/dc/terms/> .
+            @prefix edm: <http://www.europeana.eu/schemas/edm/> .
+            @prefix ore: <http://www.openarchives.org/ore/terms/> .
+            @prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> .
+            @prefix skos: <http://www.w3.org/2004/02/skos/core#> .
+            @prefix xsd: <http://www.w3.org/2001/XMLSchema#> .
+            """;
+
+    private File folder;
+    private File zipFile;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("benchmark").toFile();
+        String zip = System.getProperty("benchmark.zip");
+        zipFile = (zip == null ? createSampleZip(new File(folder, DATASET_ID + ".zip")) : new File(zip));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public long filterPrefixes() throws IOException {
+        return createTtlFile(RdfOutputFormat.TURTLE);
+    }
+
+    @Benchmark
+    public long convertToNTriples() throws IOException {
+        return createTtlFile(RdfOutputFormat.NTRIPLES);
+    }
+
+    private long createTtlFile(RdfOutputFormat format) throws IOException {
+        File ttlFile = new File(folder, DATASET_ID + format.getFileExtension());
+        long bytes = 0;
+        try (ImportFileCreator creator = new ImportFileCreator(DATASET_ID, zipFile, ttlFile, Instant.EPOCH, 0)) {
+            creator.setOutputFormat(format);
+            creator.setCompression(Deflater.NO_COMPRESSION, null, 0);
+            while (creator.hasNextTtlFile()) {
+                bytes += creator.createNextTtlFile().getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a zip file with records that look like the records of a Europeana dataset, each with its own prefixes
+     */
+    private static File createSampleZip(File file) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < SAMPLE_RECORDS; i++) {
+                zip.putNextEntry(new ZipEntry(DATASET_ID + "_" + i + ".ttl"));
+                zip.write(createSampleRecord(i).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static String createSampleRecord(int nr) {
+        String item = "<http://data.europeana.eu/item/" + DATASET_ID + "/record_" + nr + ">";
+        String proxy = "<http://data.europeana.eu/proxy/provider/" + DATASET_ID + "/record_" + nr + ">";
+        String aggregation = "<http://data.europeana.eu/aggregation/provider/" + DATASET_ID + "/record_" + nr + ">";
+        return SAMPLE_PREFIXES + "\n"
+                + item + " a edm:ProvidedCHO .\n"
+                + proxy + " a ore:Proxy ;\n"
+                + "    dc:title \"Sample record " + nr + " with a title that is about as long as a real one\"@en ;\n"
+                + "    dc:description \"A description of the object, containing some text in a language "
+                + "other than English: Ein Gemälde mit Blumen und Früchten\"@de ;\n"
+                + "    dc:creator <http://data.europeana.eu/agent/" + (nr % 100) + "> ;\n"
+                + "    dc:subject <http://data.europeana.eu/concept/" + (nr % 50) + "> ;\n"
+                + "    dc:date \"18" + (nr % 100) + "\" ;\n"
+                + "    dcterms:created \"2021-03-04T12:00:00Z\"^^xsd:dateTime ;\n"
+                + "    edm:type \"IMAGE\" ;\n"
+                + "    ore:proxyFor " + item + " ;\n"
+                + "    ore:proxyIn " + aggregation + " .\n"
+                + aggregation + " a ore:Aggregation ;\n"
+                + "    edm:aggregatedCHO " + item + " ;\n"
+                + "    edm:isShownBy <https://example.org/images/" + nr + ".jpg> ;\n"
+                + "    edm:provider \"Sample provider\" ;\n"
+                + "    edm:rights <http://creativecommons.org/licenses/by/4.0/> .\n"
+                + "<http://data.europeana.eu/agent/" + (nr % 100) + "> a edm:Agent ;\n"
+                + "    skos:prefLabel \"Agent " + (nr % 100) + "\"@en .\n";
+    }
+}
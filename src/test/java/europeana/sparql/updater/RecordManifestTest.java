@@ -0,0 +1,130 @@
+package europeana.sparql.updater;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static europeana.sparql.updater.SortedLineWriterTest.readLines;
+import static europeana.sparql.updater.TripleDumpTest.DATASET_ID;
+import static europeana.sparql.updater.TripleDumpTest.record;
+import static europeana.sparql.updater.TripleDumpTest.timestampLine;
+import static europeana.sparql.updater.TripleDumpTest.titleLine;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordManifestTest {
+
+    private static final Instant TIMESTAMP_1 = Instant.parse("2024-01-05T14:22:31Z");
+    private static final Instant TIMESTAMP_2 = Instant.parse("2024-02-01T09:00:00Z");
+    private static final String PLACE = "<http://example.org/place/1> <http://www.w3.org/2004/02/skos/core#prefLabel> "
+            + "\"Place\" .";
+
+    @TempDir
+    File folder;
+
+    @Test
+    void removesTriplesOfChangedAndRemovedRecordsOnly() throws IOException {
+        File manifestFile = new File(folder, "manifest");
+        File triplesFile = new File(folder, "records.nt.gz");
+        try (RecordManifest manifest = new RecordManifest(new File(folder, "new.nt.gz"))) {
+            load(manifest, TIMESTAMP_1, Map.of(
+                    "1.ttl", record("1", "One") + PLACE,
+                    "2.ttl", record("2", "Two") + PLACE,
+                    "3.ttl", record("3", "Three")));
+            manifest.write(manifestFile, triplesFile);
+        }
+
+        File removedFile = new File(folder, "removed.nt.gz");
+        try (RecordManifest manifest = RecordManifest.read(manifestFile, triplesFile, new File(folder, "new.nt.gz"))) {
+            assertTrue(manifest.hasPreviousVersion());
+            load(manifest, TIMESTAMP_2, Map.of(
+                    "1.ttl", record("1", "One") + PLACE,
+                    "2.ttl", record("2", "Two (changed)") + PLACE));
+
+            // the place is still part of unchanged record 1, record 3 was removed
+            assertEquals(3, manifest.writeRemovedTriples(removedFile));
+            assertEquals(List.of(timestampLine(TIMESTAMP_1), titleLine("2", "Two"), titleLine("3", "Three")),
+                    readLines(removedFile));
+            assertEquals(2, manifest.getRecords());
+            assertEquals(1, manifest.getChangedRecords());
+            assertEquals(1, manifest.getRemovedRecords());
+
+            manifest.write(manifestFile, triplesFile);
+        }
+        // the triples of unchanged records are kept for the next version
+        assertEquals(List.of(
+                        timestampLine(TIMESTAMP_2) + "\t",
+                        titleLine("1", "One") + "\t1.ttl",
+                        titleLine("2", "Two (changed)") + "\t2.ttl",
+                        PLACE + "\t1.ttl",
+                        PLACE + "\t2.ttl"),
+                readLines(triplesFile));
+    }
+
+    @Test
+    void removesSharedTriplesWhenAllRecordsChanged() throws IOException {
+        File manifestFile = new File(folder, "manifest");
+        File triplesFile = new File(folder, "records.nt.gz");
+        try (RecordManifest manifest = new RecordManifest(new File(folder, "new.nt.gz"))) {
+            load(manifest, TIMESTAMP_1, Map.of(
+                    "1.ttl", record("1", "One") + PLACE,
+                    "2.ttl", record("2", "Two") + PLACE));
+            manifest.write(manifestFile, triplesFile);
+        }
+
+        File removedFile = new File(folder, "removed.nt.gz");
+        try (RecordManifest manifest = RecordManifest.read(manifestFile, triplesFile, new File(folder, "new.nt.gz"))) {
+            load(manifest, TIMESTAMP_2, Map.of(
+                    "1.ttl", record("1", "One (changed)") + PLACE,
+                    "2.ttl", record("2", "Two (changed)") + PLACE));
+
+            // the place is added again when the changed records are loaded
+            assertEquals(4, manifest.writeRemovedTriples(removedFile));
+            assertEquals(List.of(timestampLine(TIMESTAMP_1), titleLine("1", "One"), titleLine("2", "Two"), PLACE),
+                    readLines(removedFile));
+        }
+    }
+
+    @Test
+    void blankNodesMakeManifestNotComparable() throws IOException {
+        try (RecordManifest manifest = new RecordManifest(new File(folder, "new.nt.gz"))) {
+            load(manifest, TIMESTAMP_1, Map.of(
+                    "1.ttl", record("1", "One"),
+                    "2.ttl", "<http://data.europeana.eu/item/123/2> <http://purl.org/dc/elements/1.1/subject> "
+                            + "[ <http://www.w3.org/2004/02/skos/core#prefLabel> \"x\" ] ."));
+
+            assertFalse(manifest.isComparable());
+            assertEquals("record 2.ttl contains blank nodes", manifest.getNotComparableReason());
+        }
+    }
+
+    /**
+     * Check all records and collect the triples of the added and changed ones, like ImportFileCreator does
+     */
+    private static void load(RecordManifest manifest, Instant timestamp, Map<String, String> records)
+            throws IOException {
+        manifest.addDatasetTriple(NodeFactory.createURI("http://data.europeana.eu/dataset/" + DATASET_ID),
+                NodeFactory.createURI("http://purl.org/dc/terms/modified"),
+                NodeFactory.createLiteral(timestamp.toString(), XSDDatatype.XSDdateTime));
+        for (Map.Entry<String, String> entry : records.entrySet()) {
+            byte[] data = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            if (manifest.check(entry.getKey(), data) != RecordManifest.RecordState.UNCHANGED) {
+                RecordManifest.RecordTriples triples = manifest.collectTriples(entry.getKey(), StreamRDFLib.sinkNull());
+                RDFParser.fromString(entry.getValue()).lang(Lang.TURTLE).parse(triples);
+                triples.commit();
+            }
+        }
+    }
+}
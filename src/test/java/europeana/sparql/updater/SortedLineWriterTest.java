@@ -0,0 +1,67 @@
+package europeana.sparql.updater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SortedLineWriterTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void sortsLinesWithoutDuplicates() throws IOException {
+        File file = new File(folder, "lines.gz");
+        try (SortedLineWriter writer = new SortedLineWriter(file)) {
+            for (String line : List.of("c", "a", "b", "a", "c")) {
+                writer.add(line);
+            }
+            assertEquals(3, writer.finish());
+        }
+        assertEquals(List.of("a", "b", "c"), readLines(file));
+    }
+
+    @Test
+    void removesDuplicatesAcrossRuns() throws IOException {
+        File file = new File(folder, "lines.gz");
+        // runs [a b c], [a c d] and [b e], duplicates end up in different runs
+        try (SortedLineWriter writer = new SortedLineWriter(file, 3)) {
+            for (String line : List.of("c", "a", "b", "d", "a", "c", "b", "e")) {
+                writer.add(line);
+            }
+            assertEquals(5, writer.finish());
+        }
+        assertEquals(List.of("a", "b", "c", "d", "e"), readLines(file));
+        // the runs are removed when the writer is closed
+        assertArrayEquals(new String[] {"lines.gz"}, folder.list());
+    }
+
+    @Test
+    void writesEmptyFileWithoutLines() throws IOException {
+        File file = new File(folder, "lines.gz");
+        try (SortedLineWriter writer = new SortedLineWriter(file)) {
+            assertEquals(0, writer.finish());
+        }
+        assertEquals(List.of(), readLines(file));
+    }
+
+    static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = SortedLineWriter.openReader(file)) {
+            String line = in.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = in.readLine();
+            }
+        }
+        return lines;
+    }
+}
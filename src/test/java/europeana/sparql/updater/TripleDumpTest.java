@@ -0,0 +1,118 @@
+package europeana.sparql.updater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static europeana.sparql.updater.SortedLineWriterTest.readLines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TripleDumpTest {
+
+    static final String DATASET_ID = "123";
+    private static final Instant TIMESTAMP_1 = Instant.parse("2024-01-05T14:22:31Z");
+    private static final Instant TIMESTAMP_2 = Instant.parse("2024-02-01T09:00:00Z");
+    private static final String PREFIXES = """
+            @prefix dc: <http://purl.org/dc/elements/1.1/> .
+            @prefix skos: <http://www.w3.org/2004/02/skos/core#> .
+            """;
+    private static final String PLACE = "<http://example.org/place/1> skos:prefLabel \"Place\" .\n";
+
+    @TempDir
+    File folder;
+
+    @Test
+    void createWritesSortedTriplesWithTimestamp() throws IOException {
+        File zip = createZip("v1.zip", Map.of(
+                "1.ttl", record("1", "One") + PLACE,
+                "2.ttl", record("2", "Two") + PLACE));
+
+        TripleDump dump = TripleDump.create(DATASET_ID, zip, TIMESTAMP_1, new File(folder, "v1.nt.gz"));
+
+        assertTrue(dump.isComparable());
+        // the shared place is only written once
+        assertEquals(4, dump.getTriples());
+        assertEquals(List.of(
+                timestampLine(TIMESTAMP_1),
+                titleLine("1", "One"),
+                titleLine("2", "Two"),
+                "<http://example.org/place/1> <http://www.w3.org/2004/02/skos/core#prefLabel> \"Place\" ."),
+                readLines(dump.getFile()));
+    }
+
+    @Test
+    void compareWritesRemovedAndAddedTriples() throws IOException {
+        File zip1 = createZip("v1.zip", Map.of(
+                "1.ttl", record("1", "One"),
+                "2.ttl", record("2", "Two"),
+                "3.ttl", record("3", "Three")));
+        File zip2 = createZip("v2.zip", Map.of(
+                "1.ttl", record("1", "One"),
+                "2.ttl", record("2", "Two (changed)"),
+                "4.ttl", record("4", "Four")));
+        TripleDump previous = TripleDump.create(DATASET_ID, zip1, TIMESTAMP_1, new File(folder, "v1.nt.gz"));
+        TripleDump dump = TripleDump.create(DATASET_ID, zip2, TIMESTAMP_2, new File(folder, "v2.nt.gz"));
+        File removedFile = new File(folder, "removed.nt.gz");
+        File addedFile = new File(folder, "added.nt.gz");
+
+        TripleDump.Delta delta = dump.compare(previous.getFile(), removedFile, addedFile);
+
+        assertEquals(new TripleDump.Delta(3, 3), delta);
+        assertEquals(List.of(timestampLine(TIMESTAMP_1), titleLine("2", "Two"), titleLine("3", "Three")),
+                readLines(removedFile));
+        assertEquals(List.of(timestampLine(TIMESTAMP_2), titleLine("2", "Two (changed)"), titleLine("4", "Four")),
+                readLines(addedFile));
+    }
+
+    @Test
+    void blankNodesMakeDumpNotComparable() throws IOException {
+        File zip = createZip("v1.zip", Map.of(
+                "1.ttl", record("1", "One"),
+                "2.ttl", PREFIXES + "<http://data.europeana.eu/item/123/2> dc:subject [ skos:prefLabel \"x\" ] .\n"));
+        File dumpFile = new File(folder, "v1.nt.gz");
+
+        TripleDump dump = TripleDump.create(DATASET_ID, zip, TIMESTAMP_1, dumpFile);
+
+        assertFalse(dump.isComparable());
+        assertEquals("record 2.ttl contains blank nodes", dump.getNotComparableReason());
+        assertFalse(dumpFile.exists());
+    }
+
+    static String record(String id, String title) {
+        return PREFIXES + "<http://data.europeana.eu/item/123/" + id + "> dc:title \"" + title + "\" .\n";
+    }
+
+    static String titleLine(String id, String title) {
+        return "<http://data.europeana.eu/item/123/" + id + "> <http://purl.org/dc/elements/1.1/title> \""
+                + title + "\" .";
+    }
+
+    static String timestampLine(Instant timestamp) {
+        return "<http://data.europeana.eu/dataset/" + DATASET_ID + "> <http://purl.org/dc/terms/modified> \""
+                + timestamp + "\"^^<http://www.w3.org/2001/XMLSchema#dateTime> .";
+    }
+
+    private File createZip(String name, Map<String, String> records) throws IOException {
+        File zip = new File(folder, name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(records).entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+}